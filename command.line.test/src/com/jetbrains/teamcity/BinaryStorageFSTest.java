@@ -0,0 +1,129 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BinaryStorageFSTest {
+
+  private File myFolder;
+  private String myStorageFile;
+
+  @Before
+  public void setUp() throws Exception {
+    myFolder = FileUtil.createTempDirectory("BinaryStorageFSTest", "");
+    myStorageFile = new File(myFolder, ".tcstorage").getPath();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtil.delete(myFolder);
+  }
+
+  @Test
+  public void changes_are_appended() throws Exception {
+    save("key1", "value1", "key2", "value2");
+    final long size = getFile().length();
+    save("key1", "changed");
+    final long appended = getFile().length() - size;
+    assertTrue(String.valueOf(appended), appended > 0 && appended < size);
+
+    final BinaryStorageFS storage = load();
+    assertEquals("changed", storage.read("key1"));
+    assertEquals("value2", storage.read("key2"));
+    assertNull(storage.read("key3"));
+  }
+
+  @Test
+  public void null_removes_entry() throws Exception {
+    save("key1", "value1", "key2", "value2");
+    save("key1", null);
+
+    final BinaryStorageFS storage = load();
+    assertNull(storage.read("key1"));
+    assertEquals("value2", storage.read("key2"));
+  }
+
+  @Test
+  public void truncated_record_is_ignored() throws Exception {
+    save("key1", "value1");
+    final long size = getFile().length();
+    save("key2", "value2");
+    final RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+    try {
+      file.setLength(getFile().length() - 1);
+    } finally {
+      file.close();
+    }
+
+    final BinaryStorageFS storage = load();
+    assertEquals("value1", storage.read("key1"));
+    assertNull(storage.read("key2"));
+    // the torn tail is dropped by the next write
+    storage.save(entries("key3", "value3"));
+    assertEquals("value3", load().read("key3"));
+    assertTrue(getFile().length() > size);
+  }
+
+  @Test
+  public void corrupted_length_is_ignored() throws Exception {
+    save("key1", "value1");
+    final long size = getFile().length();
+    save("key2", "value2");
+    final RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+    try {
+      // the length follows the UTF-8 key of the record
+      for (final int length : new int[] { -2, Integer.MAX_VALUE }) {
+        file.seek(size + 2 + "key2".length());
+        file.writeInt(length);
+        final BinaryStorageFS storage = load();
+        assertEquals("value1", storage.read("key1"));
+        assertNull(storage.read("key2"));
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test
+  public void replaced_records_are_compacted() throws Exception {
+    final StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 1024; i++) {
+      value.append('x');
+    }
+    for (int i = 0; i < 100; i++) {
+      save("key", value.toString() + i);
+    }
+    assertTrue(String.valueOf(getFile().length()), getFile().length() < 40 * 1024);
+    assertEquals(value.toString() + 99, load().read("key"));
+  }
+
+  private File getFile() {
+    return new File(myStorageFile + BinaryStorageFS.EXTENSION);
+  }
+
+  private BinaryStorageFS load() {
+    final BinaryStorageFS storage = new BinaryStorageFS(myStorageFile);
+    storage.load();
+    return storage;
+  }
+
+  private void save(final String... keysAndValues) {
+    load().save(entries(keysAndValues));
+  }
+
+  private static LinkedHashMap<Object, Serializable> entries(final String... keysAndValues) {
+    final LinkedHashMap<Object, Serializable> result = new LinkedHashMap<Object, Serializable>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      result.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return result;
+  }
+}
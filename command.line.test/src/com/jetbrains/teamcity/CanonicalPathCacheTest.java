@@ -0,0 +1,64 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.nio.file.Files;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CanonicalPathCacheTest {
+
+  private File myRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = FileUtil.createTempDirectory("canonical", "").getCanonicalFile();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtil.delete(myRoot);
+  }
+
+  @Test
+  public void resolves_once_per_path() throws Exception {
+    final File target = new File(myRoot, "target");
+    target.mkdirs();
+    final File link = new File(myRoot, "link");
+    Files.createSymbolicLink(link.toPath(), target.toPath());
+
+    final CanonicalPathCache cache = new CanonicalPathCache(100);
+    final File resolved = cache.getCanonicalFile(new File(link, "1.java"));
+    assertEquals(new File(target, "1.java"), resolved);
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    assertSame(resolved, cache.getCanonicalFile(new File(link, "1.java")));
+    // the canonical form is remembered as well
+    assertSame(resolved, cache.getCanonicalFile(new File(target, "1.java")));
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void drops_least_recently_used() throws Exception {
+    final CanonicalPathCache cache = new CanonicalPathCache(2);
+    final File first = new File(myRoot, "1.java");
+    final File second = new File(myRoot, "2.java");
+    cache.getCanonicalFile(first);
+    cache.getCanonicalFile(second);
+    cache.getCanonicalFile(first);
+    cache.getCanonicalFile(new File(myRoot, "3.java"));
+
+    assertEquals(1, cache.getHits());
+    // the second one has been evicted, the first one was used after it
+    cache.getCanonicalFile(second);
+    assertEquals(1, cache.getHits());
+    assertEquals(4, cache.getMisses());
+  }
+
+}
@@ -0,0 +1,94 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FileManifestTest {
+
+  private File myRoot;
+  private File myManifestFile;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = FileUtil.createTempDirectory("manifest", "");
+    myManifestFile = new File(myRoot, ".tcmanifest");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtil.delete(myRoot);
+  }
+
+  @Test
+  public void only_changed_files_reported_after_save() throws Exception {
+    final File same = new File(myRoot, "same.txt");
+    final File changed = new File(myRoot, "changed.txt");
+    final File touched = new File(myRoot, "touched.txt");
+    final File deleted = new File(myRoot, "deleted.txt");
+    FileUtil.writeFileAndReportErrors(same, "same");
+    FileUtil.writeFileAndReportErrors(changed, "before");
+    FileUtil.writeFileAndReportErrors(touched, "touched");
+
+    final FileManifest first = FileManifest.load(myManifestFile);
+    assertEquals(3, first.getChanged(Arrays.asList(same, changed, touched), RuntimeUtil.NULL_MONITOR).size());
+    first.save();
+
+    FileUtil.writeFileAndReportErrors(changed, "after!");
+    touched.setLastModified(touched.lastModified() - 10000);
+
+    final FileManifest second = FileManifest.load(myManifestFile);
+    assertEquals(Arrays.asList(changed, deleted), second.getChanged(Arrays.asList(same, changed, touched, deleted), RuntimeUtil.NULL_MONITOR));
+    second.save();
+
+    // same content with another timestamp is re-hashed once and recorded
+    final FileManifest third = FileManifest.load(myManifestFile);
+    final FileManifest.Entry entry = third.getEntry(touched);
+    assertNotNull(entry);
+    assertEquals(touched.lastModified(), entry.myModified);
+    assertEquals(Collections.<File>emptyList(), third.getChanged(Arrays.asList(same, changed, touched), RuntimeUtil.NULL_MONITOR));
+  }
+
+  @Test
+  public void deleted_files_are_forgotten_on_save() throws Exception {
+    final File kept = new File(myRoot, "kept.txt");
+    final File notWalked = new File(myRoot, "not-walked.txt");
+    final File deleted = new File(myRoot, "deleted.txt");
+    FileUtil.writeFileAndReportErrors(kept, "kept");
+    FileUtil.writeFileAndReportErrors(notWalked, "not walked");
+    FileUtil.writeFileAndReportErrors(deleted, "deleted");
+    final FileManifest first = FileManifest.load(myManifestFile);
+    first.getChanged(Arrays.asList(kept, notWalked, deleted), RuntimeUtil.NULL_MONITOR);
+    first.save();
+
+    FileUtil.delete(deleted);
+    final FileManifest second = FileManifest.load(myManifestFile);
+    second.getChanged(Collections.singletonList(kept), RuntimeUtil.NULL_MONITOR);
+    second.save();
+
+    final FileManifest third = FileManifest.load(myManifestFile);
+    assertNotNull(third.getEntry(kept));
+    assertNotNull(third.getEntry(notWalked));
+    assertNull(third.getEntry(deleted));
+  }
+
+  @Test
+  public void nothing_recorded_without_save() throws Exception {
+    final File file = new File(myRoot, "file.txt");
+    FileUtil.writeFileAndReportErrors(file, "content");
+
+    FileManifest.load(myManifestFile).getChanged(Collections.singletonList(file), RuntimeUtil.NULL_MONITOR);
+
+    assertEquals(Collections.singletonList(file), FileManifest.load(myManifestFile).getChanged(Collections.singletonList(file), RuntimeUtil.NULL_MONITOR));
+  }
+
+}
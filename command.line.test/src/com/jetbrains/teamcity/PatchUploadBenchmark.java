@@ -0,0 +1,82 @@
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.util.Collection;
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
+import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilderImpl;
+import jetbrains.buildServer.vcs.patches.PatchBuilderImpl;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Compares plain and gzipped patch upload of a sample tree over a link of limited bandwidth.
+ * <p>
+ * usage: PatchUploadBenchmark [tree, default is current folder] [bandwidth in Mbit/s, default is 10]
+ */
+public class PatchUploadBenchmark {
+
+  private static final int ITERATIONS = 3;
+
+  public static void main(String[] args) throws Exception {
+    final File tree = new File(args.length > 0 ? args[0] : ".").getCanonicalFile();
+    final double mbits = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+    final Collection<File> files = Util.getFiles(tree.getPath(), Util.SERVICE_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+    System.out.println(String.format("%d file(s) of %s, %.1f Mbit/s link", files.size(), tree, mbits));
+
+    final Server.IPatchWriter writer = new Server.IPatchWriter() {
+      public void write(@NotNull final OutputStream out) throws IOException {
+        final LowLevelPatchBuilderImpl patcher = new LowLevelPatchBuilderImpl(new DataOutputStream(new BufferedOutputStream(out)));
+        try {
+          for (final File file : files) {
+            final String path = Util.getRelativePath(tree, file);
+            patcher.changeBinary(path, (int)file.length(), new PatchBuilderImpl.StreamWriteFileContent(new BufferedInputStream(new FileInputStream(file)), file.length()), false);
+          }
+          patcher.exit("");
+        } finally {
+          patcher.close();
+        }
+      }
+    };
+    for (final boolean compressed : new boolean[]{false, true}) {
+      long bestTime = Long.MAX_VALUE;
+      final Server.StreamingRequestEntity entity = new Server.StreamingRequestEntity(writer, -1, compressed);
+      for (int i = 0; i < ITERATIONS; i++) {
+        final long start = System.nanoTime();
+        entity.writeRequest(new ThrottledOutputStream(mbits));
+        bestTime = Math.min(bestTime, (System.nanoTime() - start) / 1000000);
+      }
+      System.out.println(String.format("%-6s %,12d bytes sent, %,12d bytes of patch, %,6d ms", compressed ? "gzip" : "plain", entity.getWritten(), entity.getPatchSize(), bestTime));
+    }
+  }
+
+  /**
+   * discards the data at the rate of the link
+   */
+  private static class ThrottledOutputStream extends OutputStream {
+
+    private final double myBytesPerMs;
+    private final long myStart = System.nanoTime();
+    private long myWritten;
+
+    ThrottledOutputStream(final double mbits) {
+      myBytesPerMs = mbits * 1000 / 8;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull final byte[] b, final int off, final int len) throws IOException {
+      myWritten += len;
+      final long due = (long)(myWritten / myBytesPerMs) - (System.nanoTime() - myStart) / 1000000;
+      if (due > 0) {
+        try {
+          Thread.sleep(due);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.util.Arrays;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProjectsCacheTest {
+
+  private File myCacheFile;
+
+  @Before
+  public void setUp() throws Exception {
+    myCacheFile = FileUtil.createTempFile("projects", ".cache");
+    FileUtil.delete(myCacheFile);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtil.delete(myCacheFile);
+  }
+
+  @Test
+  public void keeps_projects_between_runs() throws Exception {
+    assertNull(new ProjectsCache(myCacheFile, 60000).getProjects());
+
+    new ProjectsCache(myCacheFile, 60000).save("42", Arrays.asList("<project id=\"1\"/>", "<project id=\"\u043f\"/>"));
+
+    final ProjectsCache cache = new ProjectsCache(myCacheFile, 60000);
+    assertEquals(Arrays.asList("<project id=\"1\"/>", "<project id=\"\u043f\"/>"), cache.getProjects());
+    assertEquals("42", cache.getServerVersion());
+    assertFalse(cache.isExpired());
+  }
+
+  @Test
+  public void expires_after_ttl() throws Exception {
+    new ProjectsCache(myCacheFile, 0).save(null, Arrays.asList("<project/>"));
+
+    final ProjectsCache cache = new ProjectsCache(myCacheFile, 0);
+    assertTrue(cache.isExpired());
+    assertNull(cache.getServerVersion());
+    assertEquals(1, cache.getProjects().size());
+  }
+
+  @Test
+  public void ignores_corrupted_file() throws Exception {
+    FileUtil.writeFileAndReportErrors(myCacheFile, "not a cache");
+    assertNull(new ProjectsCache(myCacheFile, 60000).getProjects());
+  }
+
+}
@@ -9,8 +9,10 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Collection;
 
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
 import jetbrains.buildServer.util.FileUtil;
 
 import org.junit.AfterClass;
@@ -98,6 +100,19 @@ public class UtilTest {
 		assertNotNull(Util.getFiles(MessageFormat.format("{0}{1}{2}{3}", "rootTestFolder", File.separator, "java", File.separator, "1.java")));
 	}
 	
+	@Test
+	public void getFiles_relative_to_working_directory() throws Exception {
+		Util.setWorkingDirectory(ourTestFs.getAbsoluteFile());
+		try {
+			final Collection<File> files = Util.getFiles(MessageFormat.format("{0}{1}{2}", "java", File.separator, "1.java"));
+			assertEquals(Arrays.asList(new File(ourTestFs, "java/1.java").getCanonicalFile()), files);
+			assertEquals(new File("/absolute"), Util.resolve(new File("/absolute").getPath()));
+		} finally {
+			Util.setWorkingDirectory(null);
+		}
+		assertEquals(new File("java"), Util.resolve("java"));
+	}
+
 	@Test
 	public void getFiles_all() throws Exception {
 		final String pattern = MessageFormat.format("{0}{1}", "rootTestFolder", File.separator);
@@ -105,6 +120,59 @@ public class UtilTest {
 		assertEquals(pattern, 5, files.size());
 	}
 
+	@Test
+	public void getFiles_all_skips_service_files() throws Exception {
+		final File svnEntries = new File(ourTestFs, "java/.svn/entries");
+		final File cvsRoot = new File(ourTestFs, "cpp/CVS/Root");
+		final File mapping = new File(ourTestFs, "java/resources/.teamcity-mappings.properties");
+		try {
+			FileUtil.writeFileAndReportErrors(svnEntries, "svn");
+			FileUtil.writeFileAndReportErrors(cvsRoot, "cvs");
+			FileUtil.writeFileAndReportErrors(mapping, ".=//depo/test/\n");
+
+			assertEquals(8, Util.getFiles(ourTestFs.getPath()).size());
+			final Collection<File> files = Util.getFiles(ourTestFs.getPath(), Util.SERVICE_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+			assertEquals(files.toString(), 5, files.size());
+		} finally {
+			FileUtil.delete(svnEntries.getParentFile());
+			FileUtil.delete(cvsRoot.getParentFile());
+			FileUtil.delete(mapping);
+		}
+	}
+
+	@Test
+	public void filter_ignore_globs() throws Exception {
+		final Util.IFileFilter filter = Util.compose(Util.SERVICE_FILES_FILTER, Util.createIgnoreFilter(Arrays.asList("target/", ".git/", "*.IML", "docs/**/draft?.txt")));
+		final Collection<File> files = Util.filter(Arrays.asList(
+				new File("src/Main.java"),
+				new File("target/classes/Main.class"),
+				new File("module/target/out.jar"),
+				new File("module/targets.txt"),
+				new File(".git/config"),
+				new File("project.iml"),
+				new File("docs/a/b/draft1.txt"),
+				new File("docs/draft12.txt"),
+				new File("src/.svn/entries"),
+				new File("src/CVS/Root"),
+				new File("src/cvs/Main.java"),
+				new File("src/.teamcity-mappings.properties")), new File("."), filter);
+		assertEquals(Arrays.asList(new File("src/Main.java"), new File("module/targets.txt"), new File("docs/draft12.txt"), new File("src/cvs/Main.java")), files);
+	}
+
+	@Test
+	public void getFiles_all_ignore_globs() throws Exception {
+		final Collection<File> files = Util.getFiles(ourTestFs.getPath(), Util.createIgnoreFilter(Arrays.asList("resources/")), RuntimeUtil.NULL_MONITOR);
+		assertEquals(files.toString(), 2, files.size());
+	}
+
+	@Test
+	public void getFiles_all_ignore_globs_relative_to_root() throws Exception {
+		// folders above the walked one are not matched
+		final String parent = CanonicalPathCache.getInstance().getCanonicalFile(ourTestFs).getParentFile().getName();
+		final Collection<File> files = Util.getFiles(ourTestFs.getPath(), Util.createIgnoreFilter(Arrays.asList(parent + "/", ourTestFs.getName() + "/")), RuntimeUtil.NULL_MONITOR);
+		assertEquals(files.toString(), 5, files.size());
+	}
+
 //	@Test
 //	public void getFiles_pattern() throws Exception {
 //		final String pattern = MessageFormat.format("{0}{1}{2}", "rootTestFolder", File.separator, "**.java");
@@ -0,0 +1,49 @@
+package com.jetbrains.teamcity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class VcsStatusTest {
+
+  @Test
+  public void parseGitStatus() throws Exception {
+    final String output = " M src/Main.java\0" +
+                          "A  src/New File.java\0" +
+                          " D src/Gone.java\0" +
+                          "R  src/Renamed.java\0src/Original.java\0" +
+                          "C  src/Copy.java\0src/Source.java\0" +
+                          "?? docs/readme.txt\0";
+    assertEquals(Arrays.asList("src/Main.java", "src/New File.java", "src/Gone.java", "src/Renamed.java", "src/Original.java", "src/Copy.java", "docs/readme.txt"),
+                 VcsStatus.parseGitStatus(output));
+    assertEquals(Collections.<String>emptyList(), VcsStatus.parseGitStatus(""));
+  }
+
+  @Test
+  public void parseHgStatus() throws Exception {
+    assertEquals(Arrays.asList("src/Main.java", "src/Gone.java"), VcsStatus.parseHgStatus("src/Main.java\0src/Gone.java\0"));
+    assertEquals(Collections.<String>emptyList(), VcsStatus.parseHgStatus(""));
+  }
+
+  @Test
+  public void parseSvnStatus() throws Exception {
+    final String output = "M       src/Main.java\n" +
+                          " M      src/props-only.txt\n" +
+                          "A  +    src/Copied.java\n" +
+                          "D       src/Gone.java\n" +
+                          "!       src/Missing.java\n" +
+                          "?       new folder\n" +
+                          "?         spaced name \r\n" +
+                          "I       build.log\n" +
+                          "X       externals\n" +
+                          "C       src/Conflict.java\n" +
+                          "      >   local edit, incoming delete upon update\n" +
+                          "\n" +
+                          "Performing status on external item at 'externals':\n";
+    assertEquals(Arrays.asList("src/Main.java", "src/Copied.java", "src/Gone.java", "src/Missing.java", "new folder", "  spaced name ", "src/Conflict.java"),
+                 VcsStatus.parseSvnStatus(output));
+  }
+
+}
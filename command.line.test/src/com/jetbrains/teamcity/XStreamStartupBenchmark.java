@@ -0,0 +1,94 @@
+package com.jetbrains.teamcity;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import jetbrains.buildServer.messages.XStreamHolder;
+import jetbrains.buildServer.xstream.ServerXStreamFormat;
+import jetbrains.buildServer.xstream.XStreamWrapper;
+
+/**
+ * Compares the XStream start cost of a run in fresh JVMs: the storage and the server data served by two separately
+ * configured XStreams (as before), by the shared lazy one, and a run which serializes nothing.
+ * Run it with the class path of tcc.jar, the numbers depend on the XStream and TeamCity jars of the tool.
+ * <p>
+ * usage: XStreamStartupBenchmark [runs per case, default is 5]
+ */
+public class XStreamStartupBenchmark {
+
+  private static final String SEPARATE = "separate";
+  private static final String SHARED = "shared";
+  private static final String NONE = "none";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 2 && "child".equals(args[0])) {
+      runCase(args[1]);
+      return;
+    }
+    final int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    for (final String name : new String[]{SEPARATE, SHARED, NONE}) {
+      long best = Long.MAX_VALUE;
+      for (int i = 0; i < runs; i++) {
+        best = Math.min(best, runChild(name));
+      }
+      System.out.println(String.format("%-8s %,6d ms", name, best));
+    }
+  }
+
+  /**
+   * @return ms from the JVM start till the exit
+   */
+  private static long runChild(final String name) throws Exception {
+    final ProcessBuilder builder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath(),
+                                                      "-cp", System.getProperty("java.class.path"),
+                                                      XStreamStartupBenchmark.class.getName(), "child", name);
+    builder.redirectErrorStream(true);
+    final long start = System.nanoTime();
+    final Process process = builder.start();
+    final String output = read(process.getInputStream());
+    if (process.waitFor() != 0) {
+      throw new IllegalStateException(output);
+    }
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  /**
+   * a run reading and writing the storage and serializing a batch for the server
+   */
+  private static void runCase(final String name) {
+    if (NONE.equals(name)) {
+      return;
+    }
+    final XStreamHolder storage = SEPARATE.equals(name) ? createHolder() : XStreamUtil.getXStreamHolder();
+    final XStreamHolder server = SEPARATE.equals(name) ? createHolder() : XStreamUtil.getXStreamHolder();
+    final HashMap<Object, Serializable> content = new HashMap<Object, Serializable>();
+    content.put("key", "value");
+    XStreamWrapper.deserializeObject(XStreamWrapper.serializeObject(content, storage), storage);
+    final List<String> batch = new ArrayList<String>();
+    batch.add("request");
+    XStreamWrapper.serializeObjects(batch, server);
+  }
+
+  private static XStreamHolder createHolder() {
+    return new XStreamHolder() {
+      protected void configureXStream(XStream xStream) {
+        ServerXStreamFormat.formatXStream(xStream);
+      }
+    };
+  }
+
+  private static String read(final InputStream stream) throws Exception {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8 * 1024];
+    int read;
+    while ((read = stream.read(buffer)) != -1) {
+      result.write(buffer, 0, read);
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,59 @@
+package com.jetbrains.teamcity.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class FileChannelWriteFileContentTest {
+
+  private File myFile;
+
+  @Before
+  public void setUp() throws Exception {
+    myFile = FileUtil.createTempFile("content", ".bin");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtil.delete(myFile);
+  }
+
+  @Test
+  public void writes_whole_file() throws Exception {
+    final byte[] content = new byte[20 * 1024 * 1024 + 17];// several transfer chunks
+    new Random(42).nextBytes(content);
+    Files.write(myFile.toPath(), content);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+    new FileChannelWriteFileContent(myFile, content.length).writeTo(out);
+
+    assertArrayEquals(content, out.toByteArray());
+  }
+
+  @Test
+  public void writes_declared_length_only() throws Exception {
+    final byte[] content = "0123456789".getBytes();
+    Files.write(myFile.toPath(), content);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new FileChannelWriteFileContent(myFile, 4).writeTo(out);
+
+    assertArrayEquals(Arrays.copyOf(content, 4), out.toByteArray());
+  }
+
+  @Test(expected = EOFException.class)
+  public void fails_on_truncated_file() throws Exception {
+    Files.write(myFile.toPath(), "0123456789".getBytes());
+
+    new FileChannelWriteFileContent(myFile, 100).writeTo(new ByteArrayOutputStream());
+  }
+}
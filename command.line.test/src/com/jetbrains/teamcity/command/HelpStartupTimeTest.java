@@ -0,0 +1,64 @@
+package com.jetbrains.teamcity.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * "tcc help" does not touch the storage or the network, its time is the start cost every command pays
+ */
+public class HelpStartupTimeTest {
+
+  static final String BUDGET_PROPERTY = "teamcity.test.help.budget";
+
+  /**
+   * ms, generous for a loaded build agent: a cold JVM prints the help in a fraction of it
+   */
+  private static final long DEFAULT_BUDGET = 3000;
+  private static final int RUNS = 3;
+
+  @Test
+  public void help_starts_within_budget() throws Exception {
+    final long budget = Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET);
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      best = Math.min(best, runHelp());
+    }
+    assertTrue(String.format("tcc help took %d ms, the budget is %d ms", best, budget), best < budget);
+  }
+
+  /**
+   * @return ms from the process start till its exit
+   */
+  private static long runHelp() throws Exception {
+    final File storage = new File(System.getProperty("java.io.tmpdir"), "HelpStartupTimeTest.tcstorage");
+    final ProcessBuilder builder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath(),
+                                                      "-cp", System.getProperty("java.class.path"),
+                                                      "-Dteamcity.cli.configfile=" + storage.getPath(),
+                                                      "-Dteamcity.cli.daemon=false",
+                                                      CommandRunner.class.getName(),
+                                                      "help");
+    builder.redirectErrorStream(true);
+    final long started = System.nanoTime();
+    final Process process = builder.start();
+    final String output = read(process.getInputStream());
+    final int exitCode = process.waitFor();
+    final long elapsed = (System.nanoTime() - started) / 1000000;
+    assertEquals(output, 0, exitCode);
+    assertTrue(output, output.contains(Messages.getString("Help.available.commands.list.header").trim()));
+    return elapsed;
+  }
+
+  private static String read(final InputStream stream) throws Exception {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8 * 1024];
+    int read;
+    while ((read = stream.read(buffer)) != -1) {
+      result.write(buffer, 0, read);
+    }
+    return result.toString();
+  }
+}
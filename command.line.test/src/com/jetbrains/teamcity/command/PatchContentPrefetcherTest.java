@@ -0,0 +1,121 @@
+package com.jetbrains.teamcity.command;
+
+import com.jetbrains.teamcity.resources.ITCResource;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PatchContentPrefetcherTest {
+
+  private File myRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = FileUtil.createTempDirectory("prefetcher", "");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtil.delete(myRoot);
+  }
+
+  @Test
+  public void entries_keep_resource_order() throws Exception {
+    final List<ITCResource> resources = new ArrayList<ITCResource>();
+    for (int i = 0; i < 100; i++) {
+      final File file = new File(myRoot, i + ".txt");
+      if (i % 10 != 0) {// every tenth is deleted
+        FileUtil.writeFileAndReportErrors(file, "content of " + i);
+      }
+      resources.add(createResource(file));
+    }
+
+    final PatchContentPrefetcher prefetcher = new PatchContentPrefetcher(resources, 3);
+    try {
+      for (int i = 0; i < 100; i++) {
+        assertTrue(prefetcher.hasNext());
+        final PatchContentPrefetcher.Entry entry = prefetcher.next();
+        assertSame(resources.get(i), entry.getResource());
+        if (i % 10 == 0) {
+          assertFalse(entry.exists());
+        } else {
+          assertTrue(entry.exists());
+          assertEquals("content of " + i, readContent(entry));
+          assertEquals(("content of " + i).length(), entry.getLength());
+        }
+      }
+      assertFalse(prefetcher.hasNext());
+    } finally {
+      prefetcher.close();
+    }
+  }
+
+  @Test
+  public void large_file_is_streamed() throws Exception {
+    final File large = new File(myRoot, "large.bin");
+    final StringBuilder content = new StringBuilder();
+    while (content.length() <= PatchContentPrefetcher.MAX_PREFETCHED_SIZE) {
+      content.append("0123456789abcdef");
+    }
+    FileUtil.writeFileAndReportErrors(large, content.toString());
+
+    final List<ITCResource> resources = new ArrayList<ITCResource>();
+    resources.add(createResource(large));
+    final PatchContentPrefetcher prefetcher = new PatchContentPrefetcher(resources, 1);
+    try {
+      final PatchContentPrefetcher.Entry entry = prefetcher.next();
+      assertEquals(large.length(), entry.getLength());
+      assertEquals(content.toString(), readContent(entry));
+    } finally {
+      prefetcher.close();
+    }
+  }
+
+  @Test
+  public void prefetched_content_is_bounded_by_bytes() throws Exception {
+    final List<ITCResource> resources = new ArrayList<ITCResource>();
+    for (int i = 0; i < 50; i++) {
+      final File file = new File(myRoot, i + ".txt");
+      FileUtil.writeFileAndReportErrors(file, String.format("content %02d", i));
+      resources.add(createResource(file));
+    }
+
+    // room for two entries of the window of forty
+    final PatchContentPrefetcher prefetcher = new PatchContentPrefetcher(resources, 10, 20);
+    try {
+      for (int i = 0; i < 50; i++) {
+        Thread.sleep(2);
+        assertTrue(String.valueOf(prefetcher.getPrefetchedBytes()), prefetcher.getPrefetchedBytes() <= 20);
+        final PatchContentPrefetcher.Entry entry = prefetcher.next();
+        assertEquals(String.format("content %02d", i), readContent(entry));
+      }
+    } finally {
+      prefetcher.close();
+    }
+  }
+
+  private static String readContent(final PatchContentPrefetcher.Entry entry) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entry.getContent().writeTo(out);
+    return out.toString();
+  }
+
+  private static ITCResource createResource(final File local) {
+    return new ITCResource() {
+      public File getLocal() {
+        return local;
+      }
+
+      public String getRepositoryPath() {
+        return "//depo/" + local.getName();
+      }
+    };
+  }
+}
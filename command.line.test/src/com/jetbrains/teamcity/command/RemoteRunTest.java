@@ -6,6 +6,7 @@ import com.jetbrains.teamcity.resources.ITCResource;
 import com.jetbrains.teamcity.resources.ITCResourceMatcher;
 import com.jetbrains.teamcity.resources.TCWorkspace;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.*;
 import jetbrains.buildServer.core.runtime.RuntimeUtil;
@@ -59,6 +60,62 @@ public class RemoteRunTest {
     // TODO: implement it
   }
 
+  @Test
+  public void createPatchWriter_writes_same_patch() throws Exception {
+    final File existing = new File(ourRootFolder, "java" + File.separator + "1.java");
+    final Collection<ITCResource> resources = Arrays.asList(createResource(existing, "//depo/test/1.java"),
+                                                            createResource(new File(ourRootFolder, "deleted.java"), "//depo/test/deleted.java"));
+    final File patch = ourCommand.createPatch(resources, RuntimeUtil.NULL_MONITOR);
+    try {
+      final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+      ourCommand.createPatchWriter(resources, RuntimeUtil.NULL_MONITOR).write(streamed);
+      assertArrayEquals(FileUtil.loadFileBytes(patch), streamed.toByteArray());
+    } finally {
+      FileUtil.delete(patch);
+    }
+  }
+
+  private static ITCResource createResource(final File local, final String repositoryPath) {
+    return new ITCResource() {
+      public File getLocal() {
+        return local;
+      }
+
+      public String getRepositoryPath() {
+        return repositoryPath;
+      }
+    };
+  }
+
+  @Test
+  public void getTCResources_parallel_matches_serial() throws Exception {
+    final File root = new File(ourRootFolder, "mapping").getCanonicalFile();
+    final File cppAdminFile = new File(root, "cpp" + File.separator + TCWorkspace.TCC_ADMIN_FILE);
+    FileUtil.writeFileAndReportErrors(new File(root, TCWorkspace.TCC_ADMIN_FILE), ".=//depo/test\n");
+    FileUtil.writeFileAndReportErrors(cppAdminFile, ".=//depo/cpp\nresources=//depo/cpp_resources\n");
+    try {
+      final ArrayList<File> files = new ArrayList<File>();
+      for (int i = 0; i < 2000; i++) {
+        final String folder = i % 3 == 0 ? "java" : i % 3 == 1 ? "cpp" : "cpp" + File.separator + "resources";
+        files.add(new File(root, folder + File.separator + "sub" + i % 17 + File.separator + i + ".txt"));
+      }
+      final Collection<ITCResource> serial = ourCommand.getTCResources(new TCWorkspace(), files, 1, RuntimeUtil.NULL_MONITOR);
+      final Collection<ITCResource> parallel = ourCommand.getTCResources(new TCWorkspace(), files, 8, RuntimeUtil.NULL_MONITOR);
+      assertEquals(files.size(), serial.size());
+      assertEquals(toStrings(serial), toStrings(parallel));
+    } finally {
+      FileUtil.delete(root);
+    }
+  }
+
+  private static Set<String> toStrings(final Collection<ITCResource> resources) {
+    final HashSet<String> out = new HashSet<String>();
+    for (final ITCResource resource : resources) {
+      out.add(resource.getLocal() + " -> " + resource.getRepositoryPath());
+    }
+    return out;
+  }
+
   @Test
   public void TW_9694() throws Exception {
     final File configFile = new File(ourRootFolder + File.separator + "java" + File.separator + "resources", TCWorkspace.TCC_ADMIN_FILE);
@@ -0,0 +1,134 @@
+package com.jetbrains.teamcity.command;
+
+import com.jetbrains.teamcity.Constants;
+import java.util.Properties;
+import java.util.Random;
+import jetbrains.buildServer.UserChangeStatus;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatusPollingSchedulerTest {
+
+  private static final int CLIENTS = 500;
+  private static final long QUEUED = 1000 * 120;
+  private static final long RUNNING = 1000 * 300;
+  private static final long STEADY_STATE = 1000 * 60;
+
+  @Test
+  public void backs_off_while_queued() throws Exception {
+    final StatusPollingScheduler scheduler = new StatusPollingScheduler(3000, 5000, 20000, 2, 4000, 0, new Random(1));
+    assertEquals(3000, scheduler.getInitialDelay());
+    assertEquals(5000, scheduler.getNextDelay(null));
+    assertEquals(10000, scheduler.getNextDelay(UserChangeStatus.PENDING));
+    assertEquals(20000, scheduler.getNextDelay(UserChangeStatus.PENDING));
+    assertEquals(20000, scheduler.getNextDelay(UserChangeStatus.PENDING));
+    assertEquals(4000, scheduler.getNextDelay(UserChangeStatus.RUNNING_SUCCESSFULY));
+    assertEquals(4000, scheduler.getNextDelay(UserChangeStatus.RUNNING_FAILED));
+    assertEquals(5000, scheduler.getNextDelay(UserChangeStatus.PENDING));
+    assertEquals(8000, scheduler.getFailureDelay(2));
+  }
+
+  @Test
+  public void jitter_keeps_delays_around_the_interval() throws Exception {
+    final StatusPollingScheduler scheduler = new StatusPollingScheduler(3000, 5000, 60000, 1.5, 5000, 0.5, new Random(1));
+    for (int i = 0; i < 1000; i++) {
+      final long delay = scheduler.getNextDelay(UserChangeStatus.RUNNING_SUCCESSFULY);
+      assertTrue(String.valueOf(delay), delay >= 2500 && delay <= 7500);
+    }
+  }
+
+  @Test
+  public void rejects_too_short_intervals() throws Exception {
+    final Properties saved = (Properties) System.getProperties().clone();
+    try {
+      System.setProperty(Constants.POLL_INITIAL_DELAY_SYSTEM_PROPERTY, "-1");
+      System.setProperty(Constants.POLL_QUEUED_INTERVAL_SYSTEM_PROPERTY, "0");
+      System.setProperty(Constants.POLL_MAX_QUEUED_INTERVAL_SYSTEM_PROPERTY, "0.5");
+      System.setProperty(Constants.POLL_RUNNING_INTERVAL_SYSTEM_PROPERTY, "-5");
+      System.setProperty(Constants.POLL_JITTER_SYSTEM_PROPERTY, "0");
+      final StatusPollingScheduler scheduler = StatusPollingScheduler.fromSystemProperties();
+      assertEquals(StatusPollingScheduler.DEFAULT_INITIAL_DELAY, scheduler.getInitialDelay());
+      assertEquals(StatusPollingScheduler.DEFAULT_QUEUED_INTERVAL, scheduler.getNextDelay(UserChangeStatus.PENDING));
+      assertEquals(StatusPollingScheduler.DEFAULT_RUNNING_INTERVAL, scheduler.getNextDelay(UserChangeStatus.RUNNING_SUCCESSFULY));
+
+      System.setProperty(Constants.POLL_INITIAL_DELAY_SYSTEM_PROPERTY, "0");
+      System.setProperty(Constants.POLL_RUNNING_INTERVAL_SYSTEM_PROPERTY, "1");
+      final StatusPollingScheduler minimal = StatusPollingScheduler.fromSystemProperties();
+      assertEquals(0, minimal.getInitialDelay());
+      assertEquals(StatusPollingScheduler.MIN_INTERVAL, minimal.getNextDelay(UserChangeStatus.RUNNING_FAILED));
+    } finally {
+      System.setProperties(saved);
+    }
+  }
+
+  /**
+   * CLIENTS tools started at once wait for builds queued for QUEUED and running for RUNNING ms
+   */
+  @Test
+  public void spreads_requests_of_concurrent_clients() throws Exception {
+    final int[] fixed = simulate(new SchedulerFactory() {
+      public StatusPollingScheduler create(final Random random) {
+        return new StatusPollingScheduler(3000, 5000, 5000, 1, 5000, 0, random);
+      }
+    });
+    final int[] adaptive = simulate(new SchedulerFactory() {
+      public StatusPollingScheduler create(final Random random) {
+        return new StatusPollingScheduler(StatusPollingScheduler.DEFAULT_INITIAL_DELAY,
+                                          StatusPollingScheduler.DEFAULT_QUEUED_INTERVAL,
+                                          StatusPollingScheduler.DEFAULT_MAX_QUEUED_INTERVAL,
+                                          StatusPollingScheduler.DEFAULT_QUEUED_BACKOFF,
+                                          StatusPollingScheduler.DEFAULT_RUNNING_INTERVAL,
+                                          StatusPollingScheduler.DEFAULT_JITTER,
+                                          random);
+      }
+    });
+    final String requests = String.format("%d clients, requests total/peak per second/peak per second after %ds: fixed %d/%d/%d, adaptive %d/%d/%d",
+                                          CLIENTS, STEADY_STATE / 1000,
+                                          total(fixed), peak(fixed, 0), peak(fixed, STEADY_STATE),
+                                          total(adaptive), peak(adaptive, 0), peak(adaptive, STEADY_STATE));
+
+    assertEquals(requests, CLIENTS, peak(fixed, STEADY_STATE));
+    assertTrue(requests, total(adaptive) < total(fixed));
+    assertTrue(requests, peak(adaptive, 0) < CLIENTS / 2);
+    assertTrue(requests, peak(adaptive, STEADY_STATE) < CLIENTS / 3);
+  }
+
+  /**
+   * @return number of status requests in every second
+   */
+  private static int[] simulate(final SchedulerFactory factory) {
+    final int[] requests = new int[(int) ((QUEUED + RUNNING) / 1000) + 1];
+    // close seeds give correlated first values
+    final Random random = new Random(1);
+    for (int client = 0; client < CLIENTS; client++) {
+      final StatusPollingScheduler scheduler = factory.create(new Random(random.nextLong()));
+      long time = scheduler.getInitialDelay();
+      while (time < QUEUED + RUNNING) {
+        requests[(int) (time / 1000)]++;
+        time += scheduler.getNextDelay(time < QUEUED ? UserChangeStatus.PENDING : UserChangeStatus.RUNNING_SUCCESSFULY);
+      }
+    }
+    return requests;
+  }
+
+  private static int total(final int[] requests) {
+    int total = 0;
+    for (final int count : requests) {
+      total += count;
+    }
+    return total;
+  }
+
+  private static int peak(final int[] requests, final long from) {
+    int peak = 0;
+    for (int second = (int) (from / 1000); second < requests.length; second++) {
+      peak = Math.max(peak, requests[second]);
+    }
+    return peak;
+  }
+
+  private interface SchedulerFactory {
+    StatusPollingScheduler create(Random random);
+  }
+}
@@ -0,0 +1,103 @@
+package com.jetbrains.teamcity.resources;
+
+import com.jetbrains.teamcity.Util;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import jetbrains.buildServer.util.FileUtil;
+
+/**
+ * Compares FileBasedMatcher lookups with the former linear scan of the sorted rules.
+ * <p>
+ * usage: FileBasedMatcherBenchmark [rules, default is 2000] [files, default is 100000]
+ */
+public class FileBasedMatcherBenchmark {
+
+  private static final int ITERATIONS = 5;
+
+  public static void main(String[] args) throws Exception {
+    final int ruleCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    final int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+    final File root = FileUtil.createTempDirectory("matcher", "").getCanonicalFile();
+    try {
+      final StringBuilder rules = new StringBuilder();
+      for (int i = 0; i < ruleCount; i++) {
+        rules.append(String.format("module%d/src=//depo/module%d/src\n", i, i));
+      }
+      rules.append(".=//depo/root\n");
+      final File adminFile = new File(root, TCWorkspace.TCC_ADMIN_FILE);
+      FileUtil.writeFileAndReportErrors(adminFile, rules.toString());
+
+      final List<File> files = new ArrayList<File>(fileCount);
+      for (int i = 0; i < fileCount; i++) {
+        files.add(new File(root, String.format("module%d/src/com/example/package%d/Class%d.java", i % (ruleCount * 2), i % 50, i)));
+      }
+
+      final FileBasedMatcher matcher = new FileBasedMatcher(adminFile);
+      final LinearScanMatcher linear = new LinearScanMatcher(matcher);
+      System.out.println(String.format("%d rule(s), %d file(s)", ruleCount + 1, fileCount));
+      run("trie", matcher, files);
+      run("linear scan", linear, files);
+    } finally {
+      FileUtil.delete(root);
+    }
+  }
+
+  private static void run(final String name, final ITCResourceMatcher matcher, final List<File> files) {
+    long best = Long.MAX_VALUE;
+    int matched = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      matched = 0;
+      final long start = System.nanoTime();
+      for (final File file : files) {
+        if (matcher.getMatching(file) != null) {
+          matched++;
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.println(String.format("%-12s %,8d ms, %d matched", name, best / 1000000, matched));
+  }
+
+  /**
+   * the lookup FileBasedMatcher used before the trie
+   */
+  private static class LinearScanMatcher implements ITCResourceMatcher {
+    private final TreeMap<String, String> myRulesMap;
+
+    LinearScanMatcher(final FileBasedMatcher matcher) throws Exception {
+      myRulesMap = new TreeMap<String, String>(new Comparator<String>() {
+        public int compare(final String key0, final String key1) {
+          return key1.toLowerCase().compareTo(key0.toLowerCase());
+        }
+      });
+      for (final String line : matcher.toString().split("\n")) {
+        final int divider = line.lastIndexOf('=');
+        if (!line.startsWith("File: ") && divider > 0) {
+          myRulesMap.put(line.substring(0, divider), line.substring(divider + 1));
+        }
+      }
+    }
+
+    public Matching getMatching(final File file) {
+      try {
+        final String filePath = Util.toPortableString(file.getCanonicalFile().getAbsolutePath());
+        for (final Map.Entry<String, String> rule : myRulesMap.entrySet()) {
+          if (filePath.startsWith(rule.getKey())) {
+            String relativePath = FileUtil.getRelativePath(rule.getKey(), filePath, '/');
+            if (".".equals(relativePath)) relativePath = "";
+            if (relativePath == null || relativePath.startsWith("..")) continue;
+            return new FileBasedMatcher.MatchingImpl(rule.getValue(), relativePath);
+          }
+        }
+        return null;
+      } catch (Exception e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.jetbrains.teamcity.resources;
+
+import java.io.File;
+import java.util.Collections;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MappingSnapshotTest {
+
+  private File myRoot;
+  private File myMappingFile;
+  private File mySnapshotFile;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = FileUtil.createTempDirectory("snapshot", "").getCanonicalFile();
+    myMappingFile = new File(myRoot, TCWorkspace.TCC_ADMIN_FILE);
+    mySnapshotFile = new File(myRoot, "snapshot.bin");
+    FileUtil.writeFileAndReportErrors(myMappingFile, ".=//depo/test\ncpp=//depo/cpp\ncpp/resources=//depo/cpp_resources/\n");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtil.delete(myRoot);
+  }
+
+  @Test
+  public void matcher_from_snapshot_is_same() throws Exception {
+    final FileBasedMatcher parsed = new FileBasedMatcher(myMappingFile, new MappingSnapshot(mySnapshotFile, myMappingFile));
+    assertTrue(mySnapshotFile.isFile());
+
+    final MappingSnapshot snapshot = new MappingSnapshot(mySnapshotFile, myMappingFile);
+    assertEquals(3, snapshot.load().size());
+    final FileBasedMatcher loaded = new FileBasedMatcher(myMappingFile, new MappingSnapshot(mySnapshotFile, myMappingFile));
+    assertEquals(parsed.toString(), loaded.toString());
+    final ITCResourceMatcher.Matching matching = loaded.getMatching(new File(myRoot, "cpp/resources/res/1.txt"));
+    assertEquals("//depo/cpp_resources", matching.getTCID());
+    assertEquals("res/1.txt", matching.getRelativePath());
+  }
+
+  @Test
+  public void invalidated_by_content() throws Exception {
+    new FileBasedMatcher(myMappingFile, new MappingSnapshot(mySnapshotFile, myMappingFile));
+    final long modified = myMappingFile.lastModified();
+    FileUtil.writeFileAndReportErrors(myMappingFile, ".=//depo/other\n");
+    myMappingFile.setLastModified(modified);
+
+    assertNull(new MappingSnapshot(mySnapshotFile, myMappingFile).load());
+    final FileBasedMatcher reparsed = new FileBasedMatcher(myMappingFile, new MappingSnapshot(mySnapshotFile, myMappingFile));
+    assertEquals("//depo/other", reparsed.getMatching(new File(myRoot, "1.txt")).getTCID());
+  }
+
+  @Test
+  public void invalidated_by_modification_time() throws Exception {
+    new FileBasedMatcher(myMappingFile, new MappingSnapshot(mySnapshotFile, myMappingFile));
+    myMappingFile.setLastModified(myMappingFile.lastModified() - 10000);
+
+    assertNull(new MappingSnapshot(mySnapshotFile, myMappingFile).load());
+  }
+
+  @Test
+  public void snapshot_of_removed_mapping_file_is_deleted() throws Exception {
+    final File removedMappingFile = new File(myRoot, "removed.properties");
+    FileUtil.writeFileAndReportErrors(removedMappingFile, ".=//depo/removed\n");
+    final File removed = new File(myRoot, MappingSnapshot.SNAPSHOT_FILE_PREFIX + "removed");
+    new FileBasedMatcher(removedMappingFile, new MappingSnapshot(removed, removedMappingFile));
+    assertTrue(removed.isFile());
+    FileUtil.delete(removedMappingFile);
+
+    final File current = new File(myRoot, MappingSnapshot.SNAPSHOT_FILE_PREFIX + "current");
+    new FileBasedMatcher(myMappingFile, new MappingSnapshot(current, myMappingFile));
+    assertTrue(current.isFile());
+    assertFalse(removed.exists());
+  }
+
+  @Test
+  public void oldest_snapshots_over_limit_are_deleted() throws Exception {
+    final int count = MappingSnapshot.MAX_SNAPSHOTS + 3;
+    final long modified = System.currentTimeMillis() - count * 1000L;
+    for (int i = 0; i < count; i++) {
+      final File file = new File(myRoot, MappingSnapshot.SNAPSHOT_FILE_PREFIX + i);
+      final MappingSnapshot snapshot = new MappingSnapshot(file, myMappingFile);
+      snapshot.load();
+      snapshot.save(Collections.singletonMap(".", "//depo/test"));
+      assertTrue(file.setLastModified(modified + i * 1000L));
+    }
+
+    MappingSnapshot.cleanUp(myRoot);
+
+    for (int i = 0; i < count; i++) {
+      assertEquals(String.valueOf(i), i >= 3, new File(myRoot, MappingSnapshot.SNAPSHOT_FILE_PREFIX + i).exists());
+    }
+  }
+
+}
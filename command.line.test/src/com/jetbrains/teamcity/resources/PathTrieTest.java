@@ -0,0 +1,46 @@
+package com.jetbrains.teamcity.resources;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PathTrieTest {
+
+  @Test
+  public void longest_prefix_wins() throws Exception {
+    final PathTrie<String> trie = new PathTrie<String>();
+    trie.put("/work/project", "//depo/project");
+    trie.put("/work/project/lib/", "//depo/lib");
+
+    assertMatch("//depo/project", "src/Main.java", trie.findLongestPrefix("/work/project/src/Main.java"));
+    assertMatch("//depo/lib", "a.jar", trie.findLongestPrefix("/work/project/lib/a.jar"));
+    assertMatch("//depo/lib", "", trie.findLongestPrefix("/work/project/lib"));
+  }
+
+  @Test
+  public void matches_whole_segments_only() throws Exception {
+    final PathTrie<String> trie = new PathTrie<String>();
+    trie.put("/work/project", "//depo/project");
+
+    assertNull(trie.findLongestPrefix("/work/project2/Main.java"));
+    assertNull(trie.findLongestPrefix("/work"));
+    assertNull(trie.findLongestPrefix("/Work/project/Main.java"));
+  }
+
+  @Test
+  public void roots() throws Exception {
+    final PathTrie<String> trie = new PathTrie<String>();
+    trie.put("/", "//depo/unix");
+    trie.put("C:/", "//depo/windows");
+
+    assertMatch("//depo/unix", "work/Main.java", trie.findLongestPrefix("/work/Main.java"));
+    assertMatch("//depo/windows", "work/Main.java", trie.findLongestPrefix("C:/work/Main.java"));
+    assertNull(trie.findLongestPrefix("D:/work/Main.java"));
+  }
+
+  private static void assertMatch(final String value, final String relativePath, final PathTrie.Match<String> match) {
+    assertEquals(value, match.myValue);
+    assertEquals(relativePath, match.myRelativePath);
+  }
+}
@@ -6,7 +6,6 @@ import java.io.IOException;
 import jetbrains.buildServer.util.FileUtil;
 import org.junit.After;
 import org.junit.Before;
-import org.junit.BeforeClass;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -17,14 +16,11 @@ public class TCWorkspaceTest {
 	private static TCWorkspace ourTestWorkspace;
 	private File root;
 
-	@BeforeClass
-	public static void setup() {
-		ourTestWorkspace = new TCWorkspace();
-	}
-
 	@Before
 	public void setUp() throws IOException {
 		root = TestingUtil.createFS();
+		// a workspace per test like per command: it revalidates the mappings shared by the workspaces
+		ourTestWorkspace = new TCWorkspace();
 
 		File file = new File(TCWorkspace.TCC_GLOBAL_ADMIN_FILE + ".test");
 		file.mkdirs();
@@ -36,14 +32,36 @@ public class TCWorkspaceTest {
 		TestingUtil.releaseFS(root);
 	}
 
+	/**
+	 * resolves the folder of the file with fresh matchers, as a new run would
+	 */
+	private static ITCResourceMatcher getMatcherFor(final File file) throws IOException {
+		final File folder = file.getParentFile();
+		return folder != null ? new TCWorkspace.FolderMatchers().get(folder.getCanonicalFile()) : null;
+	}
+
+	@Test
+	public void mappings_revalidated_by_new_workspace() throws Exception {
+		final File java = new File(root, "java/1.java");
+		assertNull(new TCWorkspace().getTCResource(java));
+
+		final File adminFile = new File(root, TCWorkspace.TCC_ADMIN_FILE);
+		FileUtil.writeFileAndReportErrors(adminFile, ".=//depo/test/\n");
+		assertEquals("//depo/test/java/1.java", new TCWorkspace().getTCResource(java).getRepositoryPath());
+
+		FileUtil.writeFileAndReportErrors(adminFile, ".=//depo/other/\n");
+		adminFile.setLastModified(adminFile.lastModified() + 10000);
+		assertEquals("//depo/other/java/1.java", new TCWorkspace().getTCResource(java).getRepositoryPath());
+	}
+
 	@Test
 	public void getAdminFileFor_error_handling() throws Exception {
 
 		//root
 		File root = TestingUtil.getFSRoot();
-		assertNull(TCWorkspace.getMatcherFor(root));
+		assertNull(getMatcherFor(root));
 		//file in root 
-		TCWorkspace.getMatcherFor(new File(root, "file.txt"));// no exception
+		getMatcherFor(new File(root, "file.txt"));// no exception
 		
 	}
 	
@@ -51,16 +69,16 @@ public class TCWorkspaceTest {
 	public void getAdminFileFor_functionality() throws Exception {
 
 			File file = new File(root, "java/resources/java.resources");
-			assertNull("Admin file found for: " + file, TCWorkspace.getMatcherFor(file));// still_not_created
+			assertNull("Admin file found for: " + file, getMatcherFor(file));// still_not_created
 			
 			final File rootAdminFile = new File(root, TCWorkspace.TCC_ADMIN_FILE);
             FileUtil.writeFileAndReportErrors(rootAdminFile, ".=//depo/test/\n");
 
 			File java = new File(root, "1.java");
-			assertNotNull("No Admin file found for: " + java, TCWorkspace.getMatcherFor(java));// the_same_place
+			assertNotNull("No Admin file found for: " + java, getMatcherFor(java));// the_same_place
 			
 			File javaResource = new File(root, "java/resources/java.resources");
-			assertNotNull("No Admin file found for: " + javaResource, TCWorkspace.getMatcherFor(javaResource));// in_hierarchy
+			assertNotNull("No Admin file found for: " + javaResource, getMatcherFor(javaResource));// in_hierarchy
 			
 	}
 	
@@ -209,4 +227,27 @@ public class TCWorkspaceTest {
 	
 
 
+	@Test
+	public void folderMatchers_resolve_each_folder_once() throws Exception {
+		final File cppAdminFile = new File(root, "cpp/" + TCWorkspace.TCC_ADMIN_FILE);
+		FileUtil.writeFileAndReportErrors(cppAdminFile, ".=//depo/test/cpp\n");
+		final File cpp = new File(root, "cpp").getCanonicalFile();
+		final File cppResources = new File(cpp, "resources");
+		final File java = new File(root, "java").getCanonicalFile();
+
+		final TCWorkspace.FolderMatchers matchers = new TCWorkspace.FolderMatchers();
+		final ITCResourceMatcher deep = matchers.get(cppResources);
+		assertNotNull(deep);
+		// the admin file is parsed once and shared by all folders below it
+		assertSame(deep, matchers.get(cpp));
+		assertNull(matchers.get(java));
+
+		// resolved folders are not looked up again
+		FileUtil.delete(cppAdminFile);
+		FileUtil.writeFileAndReportErrors(new File(java, TCWorkspace.TCC_ADMIN_FILE), ".=//depo/test/java\n");
+		assertSame(deep, matchers.get(cppResources));
+		assertNull(matchers.get(java));
+		assertNull(matchers.get(new File(java, "resources")));
+	}
+
 }
@@ -0,0 +1,244 @@
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Storage kept as a log of records: a header with the format version followed by records of a key and its
+ * Java-serialized value. A change is appended as a new record of the key and the last record wins, so a flush writes
+ * the changed entries only. Values are deserialized on the first read of their key.<br>
+ * The file is rewritten without the replaced records once they take more space than the live ones. An XML storage of
+ * the older versions of the tool is converted on the first load and kept as a backup.
+ */
+class BinaryStorageFS implements Storage.IStorageFS {
+
+  static final String EXTENSION = ".dat"; //$NON-NLS-1$
+  static final String MIGRATED_EXTENSION = ".migrated"; //$NON-NLS-1$
+
+  static final int MAGIC = 0x54435354;// "TCST"
+  static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 8;
+  private static final int REMOVED = -1;
+  /**
+   * garbage of a small file is not worth rewriting it
+   */
+  private static final long MIN_COMPACTED_SIZE = 16 * 1024;
+
+  private final File myFile;
+  private final File myLegacyFile;
+  private final String myStorageFile;
+
+  /**
+   * serialized values by key
+   */
+  private final HashMap<String, byte[]> myRecords = new HashMap<String, byte[]>();
+  private long myFileSize;
+  private long myLiveSize;
+  private boolean myTruncated;
+
+  BinaryStorageFS(@NotNull final String storageFile) {
+    myStorageFile = storageFile;
+    myFile = new File(storageFile + EXTENSION);
+    myLegacyFile = new File(storageFile + Storage.XMLStorageFS.EXTENSION);
+  }
+
+  public void load() {
+    myRecords.clear();
+    myFileSize = 0;
+    myLiveSize = 0;
+    myTruncated = false;
+    if (!myFile.exists()) {
+      if (myLegacyFile.exists()) {
+        migrate();
+      }
+      return;
+    }
+    final byte[] content;
+    try {
+      content = Files.readAllBytes(myFile.toPath());
+    } catch (NoSuchFileException e) {
+      // removed since the check
+      return;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    final ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+    final DataInputStream in = new DataInputStream(bytes);
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new RuntimeException(String.format("\"%s\" is not a storage file", myFile));
+      }
+      final int version = in.readInt();
+      if (version != VERSION) {
+        throw new RuntimeException(String.format("Unsupported format version %d of \"%s\"", version, myFile));
+      }
+      myFileSize = HEADER_SIZE;
+      while (bytes.available() > 0) {
+        final String key = in.readUTF();
+        final int length = in.readInt();
+        if (length != REMOVED && (length < 0 || length > bytes.available())) {
+          // a corrupted length is not trusted, the record and the rest of the file are dropped like a torn tail
+          throw new EOFException(String.format("Record length %d", length));
+        }
+        final byte[] value = length != REMOVED ? new byte[length] : null;
+        if (value != null) {
+          in.readFully(value);
+        }
+        putRecord(key, value);
+        myFileSize = content.length - bytes.available();
+      }
+    } catch (EOFException e) {
+      // the last record was not written completely
+      Debug.getInstance().debug(BinaryStorageFS.class, String.format("Truncated record at %d of \"%s\" ignored", myFileSize, myFile));
+      myTruncated = true;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Nullable
+  public Serializable read(@NotNull final Object key) {
+    final byte[] value = myRecords.get(String.valueOf(key));
+    if (value == null) {
+      return null;
+    }
+    try {
+      final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value));
+      try {
+        return (Serializable) in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (Exception e) {
+      // e.g. the class of the value was changed incompatibly
+      Debug.getInstance().debug(BinaryStorageFS.class, String.format("Could not read \"%s\" from \"%s\": %s", key, myFile, e));
+      return null;
+    }
+  }
+
+  public void save(@NotNull final Map<Object, Serializable> changed) {
+    final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(records);
+    try {
+      for (final Map.Entry<Object, Serializable> entry : changed.entrySet()) {
+        final String key = String.valueOf(entry.getKey());
+        final byte[] value = entry.getValue() != null ? serialize(entry.getValue()) : null;
+        putRecord(key, value);
+        writeRecord(out, key, value);
+      }
+      out.flush();
+      if (myFileSize == 0 || myTruncated || isWasteful(myFileSize + records.size())) {
+        rewrite();
+      } else {
+        final FileOutputStream file = new FileOutputStream(myFile, true);
+        try {
+          records.writeTo(file);
+        } finally {
+          file.close();
+        }
+        myFileSize += records.size();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public long getTimestamp() {
+    return myFile.lastModified();
+  }
+
+  private boolean isWasteful(final long fileSize) {
+    return fileSize > MIN_COMPACTED_SIZE && fileSize > 2 * (HEADER_SIZE + myLiveSize);
+  }
+
+  /**
+   * writes the live records only
+   */
+  private void rewrite() throws IOException {
+    final File tmp = new File(myFile.getPath() + ".tmp"); //$NON-NLS-1$
+    final File folder = tmp.getAbsoluteFile().getParentFile();
+    if (folder != null) {
+      folder.mkdirs();
+    }
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (final Map.Entry<String, byte[]> record : myRecords.entrySet()) {
+        writeRecord(out, record.getKey(), record.getValue());
+      }
+    } finally {
+      out.close();
+    }
+    // the storage is never missing, even if the process dies or another one reads it meanwhile
+    try {
+      Files.move(tmp.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    myFileSize = myFile.length();
+    myTruncated = false;
+  }
+
+  /**
+   * converts the XML storage of the older versions, the XML file is renamed so it is not converted again
+   */
+  private void migrate() {
+    final Storage.XMLStorageFS legacy = new Storage.XMLStorageFS(myStorageFile);
+    legacy.load();
+    if (!legacy.getEntries().isEmpty()) {
+      save(legacy.getEntries());
+    }
+    final File backup = new File(myLegacyFile.getPath() + MIGRATED_EXTENSION);
+    backup.delete();
+    if (!myLegacyFile.renameTo(backup)) {
+      Debug.getInstance().debug(BinaryStorageFS.class, String.format("Could not rename \"%s\" to \"%s\"", myLegacyFile, backup));
+    }
+    Debug.getInstance().debug(BinaryStorageFS.class, String.format("%d entries of \"%s\" moved to \"%s\"", legacy.getEntries().size(), myLegacyFile, myFile));
+  }
+
+  private void putRecord(@NotNull final String key, @Nullable final byte[] value) {
+    final byte[] previous = value != null ? myRecords.put(key, value) : myRecords.remove(key);
+    if (previous != null) {
+      myLiveSize -= getRecordSize(key, previous);
+    }
+    if (value != null) {
+      myLiveSize += getRecordSize(key, value);
+    }
+  }
+
+  private static long getRecordSize(@NotNull final String key, @NotNull final byte[] value) {
+    // modified UTF-8 of the key is close enough to its length for the estimate
+    return 2 + key.length() + 4 + value.length;
+  }
+
+  private static void writeRecord(@NotNull final DataOutputStream out, @NotNull final String key, @Nullable final byte[] value) throws IOException {
+    out.writeUTF(key);
+    if (value != null) {
+      out.writeInt(value.length);
+      out.write(value);
+    } else {
+      out.writeInt(REMOVED);
+    }
+  }
+
+  @NotNull
+  private static byte[] serialize(@NotNull final Serializable value) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+    try {
+      out.writeObject(value);
+    } finally {
+      out.close();
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,84 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Remembers canonical forms of the files seen during the run, so collecting, mapping and patching stages resolve
+ * each path once. Keyed by the absolute path, the least recently used entries are dropped when the cache is full.
+ * The canonical path of a file is assumed not to change while the process runs, so the daemon keeps the cache
+ * between commands.
+ */
+public class CanonicalPathCache {
+
+  static final int DEFAULT_CAPACITY = 64 * 1024;
+
+  private static CanonicalPathCache ourInstance;
+
+  private final LinkedHashMap<String, File> myCache;
+  private long myHits;
+  private long myMisses;
+
+  public synchronized static CanonicalPathCache getInstance() {
+    if (ourInstance == null) {
+      ourInstance = new CanonicalPathCache(DEFAULT_CAPACITY);
+    }
+    return ourInstance;
+  }
+
+  CanonicalPathCache(final int capacity) {
+    myCache = new LinkedHashMap<String, File>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, File> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * @return absolute canonical file, same as <code>file.getAbsoluteFile().getCanonicalFile()</code>
+   */
+  @NotNull
+  public File getCanonicalFile(@NotNull final File file) throws IOException {
+    final String absolutePath = file.getAbsolutePath();
+    synchronized (this) {
+      final File cached = myCache.get(absolutePath);
+      if (cached != null) {
+        myHits++;
+        return cached;
+      }
+      myMisses++;
+    }
+    // resolved outside of the lock: it is the slow part
+    final File canonical = new File(absolutePath).getCanonicalFile();
+    synchronized (this) {
+      myCache.put(absolutePath, canonical);
+      // the canonical form is often looked up next
+      myCache.put(canonical.getPath(), canonical);
+    }
+    return canonical;
+  }
+
+  public synchronized long getHits() {
+    return myHits;
+  }
+
+  public synchronized long getMisses() {
+    return myMisses;
+  }
+
+  public synchronized void clear() {
+    myCache.clear();
+    myHits = 0;
+    myMisses = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%d hit(s), %d miss(es), %d path(s) cached", myHits, myMisses, myCache.size()); //$NON-NLS-1$
+  }
+
+}
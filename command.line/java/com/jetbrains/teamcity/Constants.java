@@ -7,6 +7,30 @@ public class Constants {
 
   public static final String XMLRPC_TIMEOUT_SYSTEM_PROPERTY = "teamcity.xmlrpc.timeout";
 
+  public static final long DEFAULT_PROJECTS_CACHE_TTL = 1000 * 60 * 5;// 5 min
+
+  /**
+   * seconds the cached projects are used without asking the server, 0 makes every run revalidate them
+   */
+  public static final String PROJECTS_CACHE_TTL_SYSTEM_PROPERTY = "teamcity.projects.cache.ttl";
+
+  /**
+   * remote run status polling: seconds before the first request, seconds between requests while the builds are queued
+   * (multiplied by the backoff factor up to the max) and while they are running, random deviation of every delay as a fraction
+   */
+  public static final String POLL_INITIAL_DELAY_SYSTEM_PROPERTY = "teamcity.poll.initial.delay";
+  public static final String POLL_QUEUED_INTERVAL_SYSTEM_PROPERTY = "teamcity.poll.queued.interval";
+  public static final String POLL_MAX_QUEUED_INTERVAL_SYSTEM_PROPERTY = "teamcity.poll.queued.max.interval";
+  public static final String POLL_QUEUED_BACKOFF_SYSTEM_PROPERTY = "teamcity.poll.queued.backoff";
+  public static final String POLL_RUNNING_INTERVAL_SYSTEM_PROPERTY = "teamcity.poll.running.interval";
+  public static final String POLL_JITTER_SYSTEM_PROPERTY = "teamcity.poll.jitter";
+
+  /**
+   * "true" makes the tool run commands in a resident process of the user, started by the first run
+   */
+  public static final String DAEMON_SYSTEM_PROPERTY = "teamcity.cli.daemon";
+  public static final String DAEMON_ENVIRONMENT_VARIABLE = "TEAMCITY_CLI_DAEMON";
+
   public static final String UNKNOWN_STRING = "<unknown>";
 
 }
\ No newline at end of file
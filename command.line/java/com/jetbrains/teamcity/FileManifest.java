@@ -0,0 +1,212 @@
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+import jetbrains.buildServer.core.runtime.IProgressStatus;
+import jetbrains.buildServer.core.runtime.ProgressStatus;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Remembers size, modification time and content hash of the files sent by the last successful Remote Run of a workspace.
+ * A file is re-hashed only if its size or modification time differs from the recorded ones.
+ */
+public class FileManifest {
+
+  private static final String MANIFEST_FILE_PREFIX = ".tcmanifest-"; //$NON-NLS-1$
+  private static final String FORMAT_VERSION = "1"; //$NON-NLS-1$
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File myManifestFile;
+  private final HashMap<String, Entry> myEntries;
+  private final HashMap<String, Entry> myPending = new HashMap<String, Entry>();
+  /**
+   * existing files passed to the last {@link #getChanged(Collection, IProgressMonitor)}
+   */
+  private final HashSet<String> mySeen = new HashSet<String>();
+
+  static class Entry {
+    final long mySize;
+    final long myModified;
+    final String myHash;
+
+    Entry(final long size, final long modified, final String hash) {
+      mySize = size;
+      myModified = modified;
+      myHash = hash;
+    }
+
+    boolean isUpToDate(final File file) {
+      return mySize == file.length() && myModified == file.lastModified();
+    }
+  }
+
+  private FileManifest(final File manifestFile, final HashMap<String, Entry> entries) {
+    myManifestFile = manifestFile;
+    myEntries = entries;
+  }
+
+  /**
+   * @return manifest of the workspace rooted at the folder. It is kept next to the {@link Storage} file
+   */
+  @NotNull
+  public static FileManifest forWorkspace(@NotNull final File workspaceRoot) {
+    String rootPath;
+    try {
+      rootPath = CanonicalPathCache.getInstance().getCanonicalFile(workspaceRoot).getPath();
+    } catch (IOException e) {
+      rootPath = workspaceRoot.getAbsolutePath();
+    }
+    final File manifestFile = new File(Storage.getInstance().getStorageFolder(), MANIFEST_FILE_PREFIX + hash(rootPath.getBytes()).substring(0, 16));
+    return load(manifestFile);
+  }
+
+  @NotNull
+  static FileManifest load(@NotNull final File manifestFile) {
+    return new FileManifest(manifestFile, read(manifestFile));
+  }
+
+  /**
+   * @return files which differ from the recorded ones. Missing files are always reported: they are sent as deleted
+   */
+  @NotNull
+  public Collection<File> getChanged(@NotNull final Collection<File> files, @NotNull final IProgressMonitor monitor) {
+    final long startTime = System.currentTimeMillis();
+    final ArrayList<File> changed = new ArrayList<File>();
+    int hashed = 0;
+    for (final File file : files) {
+      if (!file.isFile()) {
+        changed.add(file);
+        continue;
+      }
+      final String path = file.getAbsolutePath();
+      mySeen.add(path);
+      final Entry recorded = myEntries.get(path);
+      if (recorded != null && recorded.isUpToDate(file)) {
+        continue;
+      }
+      final Entry actual;
+      try {
+        actual = new Entry(file.length(), file.lastModified(), hash(file));
+      } catch (IOException e) {
+        Debug.getInstance().debug(FileManifest.class, String.format("Could not hash \"%s\": %s", file, e.getMessage()));
+        changed.add(file);
+        continue;
+      }
+      hashed++;
+      myPending.put(path, actual);
+      if (recorded == null || !recorded.myHash.equals(actual.myHash)) {
+        changed.add(file);
+      }
+    }
+    monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("%d of %d file(s) changed since the last successful Remote Run, %d file(s) hashed in %d ms",
+                                                                          changed.size(), files.size(), hashed, System.currentTimeMillis() - startTime)));
+    return changed;
+  }
+
+  /**
+   * records the state seen by the last {@link #getChanged(Collection, IProgressMonitor)} and forgets the files which do
+   * not exist anymore. Call it once the Remote Run succeeded
+   */
+  public void save() {
+    myEntries.putAll(myPending);
+    myPending.clear();
+    for (final Iterator<String> paths = myEntries.keySet().iterator(); paths.hasNext(); ) {
+      final String path = paths.next();
+      if (!mySeen.contains(path) && !new File(path).isFile()) {
+        paths.remove();
+      }
+    }
+    mySeen.clear();
+    final StringBuilder content = new StringBuilder(FORMAT_VERSION).append('\n');
+    for (final Map.Entry<String, Entry> entry : myEntries.entrySet()) {
+      final Entry value = entry.getValue();
+      content.append(value.mySize).append('\t').append(value.myModified).append('\t').append(value.myHash).append('\t').append(entry.getKey()).append('\n');
+    }
+    try {
+      FileUtil.createParentDirs(myManifestFile);
+      FileUtil.writeFileAndReportErrors(myManifestFile, content.toString());
+    } catch (IOException e) {
+      Debug.getInstance().error(FileManifest.class, String.format("Could not save \"%s\"", myManifestFile), e);
+    }
+  }
+
+  @Nullable
+  Entry getEntry(@NotNull final File file) {
+    return myEntries.get(file.getAbsolutePath());
+  }
+
+  private static HashMap<String, Entry> read(final File manifestFile) {
+    final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    if (!manifestFile.isFile()) {
+      return entries;
+    }
+    try {
+      final String[] lines = FileUtil.readText(manifestFile).split("\n"); //$NON-NLS-1$
+      if (!FORMAT_VERSION.equals(lines[0].trim())) {
+        Debug.getInstance().debug(FileManifest.class, String.format("Unknown format of \"%s\", ignored", manifestFile));
+        return entries;
+      }
+      for (int i = 1; i < lines.length; i++) {
+        final String[] fields = lines[i].split("\t", 4); //$NON-NLS-1$
+        if (fields.length == 4) {
+          entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+        }
+      }
+    } catch (IOException e) {
+      Debug.getInstance().error(FileManifest.class, String.format("Could not read \"%s\"", manifestFile), e);
+    } catch (NumberFormatException e) {
+      Debug.getInstance().error(FileManifest.class, String.format("\"%s\" is corrupted, ignored", manifestFile), e);
+      entries.clear();
+    }
+    return entries;
+  }
+
+  /**
+   * @return SHA-1 of the file content as a hex string
+   */
+  public static String hash(final File file) throws IOException {
+    final MessageDigest digest = createDigest();
+    final InputStream in = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    return toHex(digest.digest());
+  }
+
+  public static String hash(final byte[] data) {
+    return toHex(createDigest().digest(data));
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(final byte[] bytes) {
+    final StringBuilder out = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      out.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return out.toString();
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.jetbrains.teamcity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+/**
+ * Keep-alive connections to the server shared by the plain HTTP requests of a {@link Server}: the patch upload and the
+ * command line plugin endpoints. Counts how often they are reused. The XML-RPC session opens connections of its own.
+ */
+class HttpConnectionPool extends MultiThreadedHttpConnectionManager {
+
+  private static final int MAX_CONNECTIONS = 4;
+
+  private final AtomicInteger myRequests = new AtomicInteger();
+  private final AtomicInteger myOpened = new AtomicInteger();
+
+  HttpConnectionPool() {
+    getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS);
+    getParams().setMaxTotalConnections(MAX_CONNECTIONS);
+  }
+
+  @Override
+  public HttpConnection getConnectionWithTimeout(final HostConfiguration hostConfiguration, final long timeout) throws ConnectionPoolTimeoutException {
+    final HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+    myRequests.incrementAndGet();
+    if (!connection.isOpen()) {
+      myOpened.incrementAndGet();
+    }
+    return connection;
+  }
+
+  int getRequests() {
+    return myRequests.get();
+  }
+
+  /**
+   * @return connections opened, including the ones reopened after the server closed them
+   */
+  int getOpened() {
+    return myOpened.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d requests over %d connections, %d reused", getRequests(), getOpened(), getRequests() - getOpened());
+  }
+}
@@ -0,0 +1,131 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+import jetbrains.buildServer.core.runtime.IProgressStatus;
+import jetbrains.buildServer.core.runtime.ProgressStatus;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Collects all files under the root folder. Every folder is listed by its own fork/join task so
+ * sibling subtrees are read in parallel. Files and folders rejected by the filter are pruned while
+ * walking, so they never reach the result. The filter gets paths relative to the root.
+ */
+public class ParallelFileWalker {
+
+  private final Util.IFileFilter myFilter;
+  private final int myParallelism;
+
+  private final ConcurrentLinkedQueue<File> myFiles = new ConcurrentLinkedQueue<File>();
+  private final Set<Object> myVisitedFolders = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+  private final AtomicInteger myFolderCount = new AtomicInteger();
+  private final AtomicInteger myPrunedCount = new AtomicInteger();
+
+  public ParallelFileWalker(@NotNull final Util.IFileFilter filter) {
+    this(filter, Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+  }
+
+  public ParallelFileWalker(@NotNull final Util.IFileFilter filter, final int parallelism) {
+    myFilter = filter;
+    myParallelism = parallelism;
+  }
+
+  @NotNull
+  public Collection<File> walk(@NotNull final File root, @NotNull final IProgressMonitor monitor) {
+    return walk(root, root, monitor);
+  }
+
+  /**
+   * @param base
+   *          folder the paths passed to the filter are relative to, the root or one of its parents
+   */
+  @NotNull
+  public Collection<File> walk(@NotNull final File root, @NotNull final File base, @NotNull final IProgressMonitor monitor) {
+    final long startTime = System.currentTimeMillis();
+    final ForkJoinPool pool = new ForkJoinPool(myParallelism);
+    try {
+      final Path rootPath = root.toPath();
+      markVisited(rootPath, Files.readAttributes(rootPath, BasicFileAttributes.class));
+      pool.invoke(new FolderTask(rootPath, root.equals(base) ? "" : Util.getNormalPath(base, root) + "/")); //$NON-NLS-1$ //$NON-NLS-2$
+    } catch (IOException e) {
+      throw new IllegalArgumentException(MessageFormat.format("Could not read \"{0}\"", root), e); //$NON-NLS-1$
+    } finally {
+      pool.shutdown();
+    }
+    final ArrayList<File> result = new ArrayList<File>(myFiles);
+    monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("Walked %d folder(s) of \"%s\" in %d ms: %d file(s) found, %d item(s) skipped",
+                                                                          myFolderCount.get(), root, System.currentTimeMillis() - startTime, result.size(), myPrunedCount.get())));
+    return result;
+  }
+
+  private class FolderTask extends RecursiveAction {
+
+    private final Path myFolder;
+    private final String myNormalPath;
+
+    /**
+     * @param normalPath
+     *          path of the folder relative to the base, empty or ending with '/'
+     */
+    FolderTask(final Path folder, final String normalPath) {
+      myFolder = folder;
+      myNormalPath = normalPath;
+    }
+
+    @Override
+    protected void compute() {
+      myFolderCount.incrementAndGet();
+      final List<FolderTask> subtasks = new ArrayList<FolderTask>();
+      try {
+        // depth 1: children are reported to visitFile() together with their attributes, no extra stat() required
+        Files.walkFileTree(myFolder, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+            final File file = path.toFile();
+            final String normalPath = myNormalPath + file.getName().toLowerCase();
+            if (attrs.isDirectory()) {
+              if (!myFilter.accept(file, normalPath + "/") || !markVisited(path, attrs)) { //$NON-NLS-1$
+                myPrunedCount.incrementAndGet();
+              } else {
+                subtasks.add(new FolderTask(path, normalPath + "/")); //$NON-NLS-1$
+              }
+            } else if (!myFilter.accept(file, normalPath)) {
+              myPrunedCount.incrementAndGet();
+            } else {
+              myFiles.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+            Debug.getInstance().debug(ParallelFileWalker.class, String.format("Skipping \"%s\": %s", file, e.getMessage()));
+            return FileVisitResult.CONTINUE;
+          }
+        });
+      } catch (IOException e) {
+        Debug.getInstance().debug(ParallelFileWalker.class, String.format("Could not list \"%s\": %s", myFolder, e.getMessage()));
+      }
+      invokeAll(subtasks);
+    }
+  }
+
+  /**
+   * guards against symlink loops: each physical folder is walked once
+   */
+  private boolean markVisited(final Path folder, final BasicFileAttributes attrs) {
+    final Object key = attrs.fileKey();
+    return myVisitedFolders.add(key != null ? key : folder.toAbsolutePath().normalize());
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Serialized projects of a server as seen by a user, kept in the {@link Storage} folder between runs.
+ * The projects are used as is until the TTL expires, after that while the server reports the same projects version.
+ */
+class ProjectsCache {
+
+  private static final String CACHE_FILE_PREFIX = ".tcprojects-"; //$NON-NLS-1$
+  private static final int FORMAT_VERSION = 1;
+
+  private final File myCacheFile;
+  private final long myTtl;
+  private long mySavedAt;
+  private String myServerVersion;
+  private List<String> myProjects;
+
+  ProjectsCache(@NotNull final File cacheFile, final long ttl) {
+    myCacheFile = cacheFile;
+    myTtl = ttl;
+    read();
+  }
+
+  @NotNull
+  static ProjectsCache forServer(@NotNull final String url, @Nullable final String username) {
+    final String key = FileManifest.hash((url + '\n' + username).getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    return new ProjectsCache(new File(Storage.getInstance().getStorageFolder(), CACHE_FILE_PREFIX + key), getTtl());
+  }
+
+  private static long getTtl() {
+    final String ttl = System.getProperty(Constants.PROJECTS_CACHE_TTL_SYSTEM_PROPERTY);
+    if (ttl != null) {
+      try {
+        return Long.parseLong(ttl.trim()) * 1000;
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(ProjectsCache.class, "Could not parse projects cache TTL", e);
+      }
+    }
+    return Constants.DEFAULT_PROJECTS_CACHE_TTL;
+  }
+
+  /**
+   * @return serialized projects or null if nothing is cached
+   */
+  @Nullable
+  List<String> getProjects() {
+    return myProjects;
+  }
+
+  boolean isExpired() {
+    return System.currentTimeMillis() - mySavedAt >= myTtl;
+  }
+
+  /**
+   * @return projects version reported by the server when the projects were saved, null if the server does not report it
+   */
+  @Nullable
+  String getServerVersion() {
+    return myServerVersion;
+  }
+
+  /**
+   * restarts the TTL: the server confirmed the cached projects are up to date
+   */
+  void revalidated() {
+    save(myServerVersion, myProjects);
+  }
+
+  void save(@Nullable final String serverVersion, @NotNull final List<String> projects) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      final DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+      out.writeInt(FORMAT_VERSION);
+      out.writeLong(System.currentTimeMillis());
+      out.writeUTF(serverVersion != null ? serverVersion : "");
+      out.writeInt(projects.size());
+      for (final String project : projects) {
+        final byte[] data = project.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+      }
+      out.close();
+      FileUtil.createParentDirs(myCacheFile);
+      Files.write(myCacheFile.toPath(), bytes.toByteArray());
+    } catch (IOException e) {
+      Debug.getInstance().debug(ProjectsCache.class, String.format("Could not save \"%s\": %s", myCacheFile, e.getMessage()));
+    }
+  }
+
+  void delete() {
+    FileUtil.delete(myCacheFile);
+    myProjects = null;
+  }
+
+  private void read() {
+    if (!myCacheFile.isFile()) {
+      return;
+    }
+    try {
+      final DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(Files.readAllBytes(myCacheFile.toPath()))));
+      if (in.readInt() != FORMAT_VERSION) {
+        Debug.getInstance().debug(ProjectsCache.class, String.format("Unknown format of \"%s\", ignored", myCacheFile));
+        return;
+      }
+      final long savedAt = in.readLong();
+      final String serverVersion = in.readUTF();
+      final int size = in.readInt();
+      final ArrayList<String> projects = new ArrayList<String>();
+      for (int i = 0; i < size; i++) {
+        final int length = in.readInt();
+        if (length < 0) {
+          throw new IOException("corrupted");
+        }
+        final byte[] data = new byte[length];
+        in.readFully(data);
+        projects.add(new String(data, StandardCharsets.UTF_8));
+      }
+      mySavedAt = savedAt;
+      myServerVersion = serverVersion.length() > 0 ? serverVersion : null;
+      myProjects = projects;
+    } catch (IOException e) {
+      Debug.getInstance().debug(ProjectsCache.class, String.format("Could not read \"%s\": %s", myCacheFile, e.getMessage()));
+    }
+  }
+
+}
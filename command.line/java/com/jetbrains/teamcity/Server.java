@@ -3,14 +3,15 @@ package com.jetbrains.teamcity;
 
 import java.io.*;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Base64;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import jetbrains.buildServer.*;
 import jetbrains.buildServer.core.runtime.IProgressMonitor;
 import jetbrains.buildServer.core.runtime.IProgressStatus;
 import jetbrains.buildServer.core.runtime.ProgressStatus;
+import jetbrains.buildServer.serverProxy.PersonalChangeStatusData;
 import jetbrains.buildServer.serverProxy.RemoteServerFacade;
 import jetbrains.buildServer.serverProxy.RemoteServerFacadeImpl;
 import jetbrains.buildServer.serverProxy.SessionXmlRpcTarget;
@@ -23,17 +24,35 @@ import jetbrains.buildServer.version.ServerVersionHolder;
 import jetbrains.buildServer.xmlrpc.RemoteCallException;
 import jetbrains.buildServer.xmlrpc.XmlRpcTarget.Cancelable;
 import org.apache.commons.httpclient.*;
-import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
 public class Server {
 
   public static final String UPLOAD_URL = "uploadChanges.html";
+  public static final String COMPRESSED_UPLOAD_URL = "httpAuth/commandlineUploadChanges.html";
+  public static final String PROJECTS_VERSION_URL = "httpAuth/commandlineProjectsVersion.html";
+  public static final String AJAX_URL = "httpAuth/ajax.html";
+  public static final String CHANGE_STATUS_URL = "httpAuth/commandlineChangeStatus.html";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
   private final URL myUrl;
   private SessionXmlRpcTarget mySession;
   private RemoteServerFacade myServerFacade;
+  private final HttpConnectionPool myConnectionPool = new HttpConnectionPool();
+  private final HttpClient myHttpClient = new HttpClient(myConnectionPool);
   private List<ProjectData> myProjects;
+  private ProjectsCache myProjectsCache;
+  private boolean myProjectsCached;
+  private boolean myCompressPatch;
+  private Boolean myCompressedUploadSupported;
 
   public Server(final URL url) {
     myUrl = url;
@@ -97,20 +116,215 @@ public class Server {
     return myServerFacade;
   }
 
-  public int getCurrentUser() {
+  public int getCurrentUser() throws ECommunicationException, EAuthorizationException {
     final Integer userId = mySession.getUserId();
     return userId != null ? userId : -1;
   }
 
   @SuppressWarnings("rawtypes")
-  public synchronized Collection<ProjectData> getProjects() throws ECommunicationException {
+  public synchronized Collection<ProjectData> getProjects() throws ECommunicationException, EAuthorizationException {
     if (myProjects == null) {
-      myProjects = getServerFacade().getRegisteredProjects();
+      myProjectsCache = ProjectsCache.forServer(getURL(), mySession.getUsername());
+      final List<String> cached = myProjectsCache.getProjects();
+      final boolean fresh = cached != null && !myProjectsCache.isExpired();
+      // the version check is skipped while the cache is fresh
+      final String version = fresh ? myProjectsCache.getServerVersion() : getProjectsVersion();
+      if (fresh || cached != null && isSameVersion(version)) {
+        myProjects = fromXml(cached);
+      }
+      myProjectsCached = myProjects != null;
+      if (myProjects == null) {
+        myProjects = getServerFacade().getRegisteredProjects();
+        myProjectsCache.save(version, toXml(myProjects));
+      }
     }
     return myProjects;
   }
 
-  public synchronized Collection<BuildTypeData> getConfigurations() throws ECommunicationException {
+  /**
+   * Drops projects taken from the local cache, so the next {@link #getProjects()} downloads them from the server
+   *
+   * @return true if the projects were taken from the cache
+   */
+  public synchronized boolean reloadCachedProjects() {
+    if (!myProjectsCached) {
+      return false;
+    }
+    myProjectsCache.delete();
+    myProjects = null;
+    myProjectsCached = false;
+    return true;
+  }
+
+  /**
+   * Drops projects kept in memory, so a server connection kept for several commands revalidates them with the
+   * local cache like a new one
+   */
+  public synchronized void forgetProjects() {
+    myProjects = null;
+    myProjectsCached = false;
+  }
+
+  private boolean isSameVersion(final String version) {
+    if (version == null || !version.equals(myProjectsCache.getServerVersion())) {
+      Debug.getInstance().debug(Server.class, String.format("Cached projects are out of date, server reports version %s", version));
+      return false;
+    }
+    myProjectsCache.revalidated();
+    return true;
+  }
+
+  /**
+   * @return null if the projects could not be deserialized, e.g. after the server upgrade
+   */
+  private List<ProjectData> fromXml(@NotNull final List<String> cached) {
+    try {
+      final ArrayList<ProjectData> projects = new ArrayList<ProjectData>(cached.size());
+      for (final String project : cached) {
+        projects.add(XStreamUtil.<ProjectData>deserializeObject(project));
+      }
+      Debug.getInstance().debug(Server.class, String.format("%d project(s) taken from the local cache", projects.size()));
+      return projects;
+    } catch (RuntimeException e) {
+      Debug.getInstance().error(Server.class, "Could not read cached projects", e);
+      myProjectsCache.delete();
+      return null;
+    }
+  }
+
+  @NotNull
+  private static List<String> toXml(@NotNull final List<ProjectData> projects) {
+    final ArrayList<String> xml = new ArrayList<String>(projects.size());
+    for (final Object project : XStreamUtil.serializeObjects(projects)) {
+      xml.add((String) project);
+    }
+    return xml;
+  }
+
+  /**
+   * @return stamp changed by the command line plugin on any project or configuration change, null if the plugin is not installed
+   */
+  private String getProjectsVersion() {
+    final String version = getPluginResponse(PROJECTS_VERSION_URL, "text/plain", new NameValuePair[0]);
+    return version != null ? version.trim() : null;
+  }
+
+  /**
+   * @param ids external or internal IDs of configurations
+   * @return internal IDs by the requested ones, unknown configurations are missing. Null if the command line plugin is not installed on the server
+   */
+  @Nullable
+  public Map<String, String> resolveConfigurationIds(@NotNull final Collection<String> ids) {
+    final Element resolved = resolveIds("resolveBuildTypeIds", ids);
+    if (resolved == null) {
+      return null;
+    }
+    final HashMap<String, String> result = new HashMap<String, String>();
+    final NodeList buildTypes = resolved.getElementsByTagName("buildType");
+    for (int i = 0; i < buildTypes.getLength(); i++) {
+      final Element buildType = (Element) buildTypes.item(i);
+      if (buildType.hasAttribute("ref")) {
+        result.put(buildType.getAttribute("ref"), buildType.getAttribute("id"));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param projectId external or internal ID of a project
+   * @return internal IDs of the project configurations, empty if the project is unknown. Null if the command line plugin is not installed on the server
+   */
+  @Nullable
+  public List<String> resolveProjectConfigurationIds(@NotNull final String projectId) {
+    final Element resolved = resolveIds("resolveProjectIds", Collections.singleton(projectId));
+    if (resolved == null) {
+      return null;
+    }
+    final ArrayList<String> result = new ArrayList<String>();
+    final NodeList buildTypes = resolved.getElementsByTagName("buildType");
+    for (int i = 0; i < buildTypes.getLength(); i++) {
+      result.add(((Element) buildTypes.item(i)).getAttribute("id"));
+    }
+    return result;
+  }
+
+  /**
+   * @return "resolved" element of the ajax response, null if the server did not process the request
+   */
+  @Nullable
+  private Element resolveIds(@NotNull final String parameter, @NotNull final Collection<String> ids) {
+    final StringBuilder joined = new StringBuilder();
+    for (final String id : ids) {
+      joined.append(joined.length() > 0 ? "," : "").append(id);
+    }
+    final String response = getPluginResponse(AJAX_URL, "text/xml", new NameValuePair[] { new NameValuePair(parameter, joined.toString()) });
+    if (response == null) {
+      return null;
+    }
+    try {
+      final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setExpandEntityReferences(false);
+      final Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(response.getBytes("UTF-8")));
+      final NodeList resolved = document.getElementsByTagName("resolved");
+      return resolved.getLength() > 0 ? (Element) resolved.item(0) : null;
+    } catch (ParserConfigurationException e) {
+      throw new IllegalStateException(e);
+    } catch (SAXException e) {
+      Debug.getInstance().debug(Server.class, String.format("Could not parse /%s response: %s", AJAX_URL, e.getMessage()));
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Holds the request on the server until the status of the personal change differs from the known one or the timeout elapses
+   * @param timeout milliseconds, the server limits it as well
+   * @return current status of the change. Null if the command line plugin is not installed on the server or the change is not found
+   */
+  @Nullable
+  public UserChangeStatus waitForChangeStatus(final long changeId, @Nullable final UserChangeStatus knownStatus, final long timeout) {
+    final String response = getPluginResponse(CHANGE_STATUS_URL, "text/plain", new NameValuePair[] {
+        new NameValuePair("changeId", String.valueOf(changeId)),
+        new NameValuePair("knownStatus", knownStatus != null ? knownStatus.name() : ""),
+        new NameValuePair("timeout", String.valueOf(timeout)) });
+    if (response == null) {
+      return null;
+    }
+    try {
+      return UserChangeStatus.valueOf(response.trim());
+    } catch (IllegalArgumentException e) {
+      Debug.getInstance().debug(Server.class, String.format("Unknown change status \"%s\"", response.trim()));
+      return null;
+    }
+  }
+
+  /**
+   * @return response body or null if the request failed, e.g. the command line plugin is not installed on the server
+   */
+  @Nullable
+  private String getPluginResponse(@NotNull final String url, @NotNull final String accept, @NotNull final NameValuePair[] query) {
+    final GetMethod getMethod = new GetMethod(createUploadPatchUrl(url));
+    try {
+      addAuthorizationHeader(getMethod);
+      getMethod.setRequestHeader("Accept", accept);
+      getMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      getMethod.setQueryString(query);
+      myHttpClient.executeMethod(getMethod);
+      if (getMethod.getStatusCode() != HttpStatus.SC_OK) {
+        Debug.getInstance().debug(Server.class, String.format("/%s responded with HTTP Status code %d", url, getMethod.getStatusCode()));
+        return null;
+      }
+      return getMethod.getResponseBodyAsString();
+    } catch (IOException e) {
+      Debug.getInstance().debug(Server.class, String.format("Could not request /%s: %s", url, e.getMessage()));
+      return null;
+    } finally {
+      getMethod.releaseConnection();
+    }
+  }
+
+  public synchronized Collection<BuildTypeData> getConfigurations() throws ECommunicationException, EAuthorizationException {
     final Collection<ProjectData> allProjects = getProjects();
     final ArrayList<BuildTypeData> configurations = new ArrayList<BuildTypeData>(allProjects.size() * 5);
     for (ProjectData project : allProjects) {
@@ -119,16 +333,24 @@ public class Server {
     return configurations;
   }
 
-  public TeamServerSummaryData getSummary() throws ECommunicationException {
+  public TeamServerSummaryData getSummary() throws ECommunicationException, EAuthorizationException {
     return getServerFacade().getSummaryData(String.valueOf(getCurrentUser()));
   }
 
+  /**
+   * @return status of the personal change, null if the server does not know the change
+   */
+  @Nullable
+  public PersonalChangeStatusData getPersonalChangeStatus(final long changeId) throws ECommunicationException, EAuthorizationException {
+    return getServerFacade().getPersonalChangeStatus(changeId);
+  }
+
   public String getURL() {
     return mySession.getServerURL();
   }
 
   @NotNull
-  public AddToQueueResult addRemoteRunToQueue(@NotNull List<AddToQueueRequest> batch) throws ECommunicationException {
+  public AddToQueueResult addRemoteRunToQueue(@NotNull List<AddToQueueRequest> batch) throws ECommunicationException, EAuthorizationException {
     final TriggeredByBuilder builder = new TriggeredByBuilder();
     builder.addParameter(TriggeredByBuilder.USER_PARAM_NAME, String.valueOf(getCurrentUser()));
     builder.addParameter(TriggeredByBuilder.IDE_PLUGIN_PARAM_NAME, "Command line remote run");
@@ -136,81 +358,133 @@ public class Server {
     return getServerFacade().addToQueue(batch, builder.toString());
   }
 
-  public Collection<String> getApplicableConfigurations(final Collection<String> urls) throws ECommunicationException {
+  public Collection<String> getApplicableConfigurations(final Collection<String> urls) throws ECommunicationException, EAuthorizationException {
     return getServerFacade().getSuitableConfigurations(urls);
   }
 
-  public long createChangeList(@NotNull final File patchFile, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException {
+  public long createChangeList(@NotNull final File patchFile, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException, EAuthorizationException {
+    return uploadPatch(new IPatchWriter() {
+      public void write(@NotNull final OutputStream out) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(patchFile));
+        try {
+          final byte[] buffer = new byte[BUFFER_SIZE];
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+          }
+        } finally {
+          in.close();
+        }
+      }
+    }, patchFile.length(), comment, monitor);
+  }
+
+  /**
+   * The patch is produced by the writer straight into the chunked request body, so no temporary patch file is required
+   */
+  public long createChangeList(@NotNull final IPatchWriter patchWriter, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException, EAuthorizationException {
+    return uploadPatch(patchWriter, -1, comment, monitor);
+  }
+
+  public interface IPatchWriter {
+    /**
+     * may be called more than once if the request is retried
+     */
+    void write(@NotNull OutputStream out) throws IOException;
+  }
+
+  /**
+   * gzip patches on upload. The command line plugin has to be installed on the server, plain upload is used otherwise
+   */
+  public void setCompressPatch(final boolean compress) {
+    myCompressPatch = compress;
+  }
 
-    HttpConnection connection = null;
+  private long uploadPatch(@NotNull final IPatchWriter writer, final long length, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException, EAuthorizationException {
     try {
       monitor.beginTask("Sending patch to TeamCity Server");
-      connection = getHttpConnection();
+      if (myCompressPatch && isCompressedUploadSupported()) {
+        final StreamingRequestEntity compressed = new StreamingRequestEntity(writer, -1, true);
+        return getChangeListId(postPatch(COMPRESSED_UPLOAD_URL, compressed, comment), compressed, monitor);
+      }
+      if (myCompressPatch) {
+        Debug.getInstance().debug(Server.class, String.format("/%s is not found, the patch is sent uncompressed", COMPRESSED_UPLOAD_URL));
+      }
+      final StreamingRequestEntity entity = new StreamingRequestEntity(writer, length, false);
+      return getChangeListId(postPatch(UPLOAD_URL, entity, comment), entity, monitor);
 
-      final PostMethod postMethod = new PostMethod(createUploadPatchUrl());
-      final BufferedInputStream content = new BufferedInputStream(new FileInputStream(patchFile));
+    } catch (IOException e) {
+      throw new ECommunicationException(e);
+    }
+  }
 
-      try {
-        addAuthorizationHeader(postMethod);
-        postMethod.setRequestHeader("Connection", "close");
-        postMethod.setRequestHeader("Accept", "text/plain");
-        postMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
-
-        postMethod.setRequestEntity(new InputStreamRequestEntity(content, patchFile.length()));
-        postMethod.setQueryString(new NameValuePair[] { new NameValuePair("userId", String.valueOf(getCurrentUser())),
-          new NameValuePair("description", comment),
-          new NameValuePair("date", String.valueOf(System.currentTimeMillis())),
-          new NameValuePair("commitType", String.valueOf(PreTestedCommitType.NONE.getId())), });
-        postMethod.execute(new HttpState(), connection);
-      } finally {
-        content.close();
+  /**
+   * The controller is probed before the patch is sent: a server without it may reset the connection while the body is
+   * still being sent instead of answering 404, and the patch would have to be built again for the plain upload
+   */
+  private synchronized boolean isCompressedUploadSupported() {
+    if (myCompressedUploadSupported == null) {
+      final String response = getPluginResponse(COMPRESSED_UPLOAD_URL, "text/plain", new NameValuePair[0]);
+      myCompressedUploadSupported = response != null && "OK".equals(response.trim());
+    }
+    return myCompressedUploadSupported;
+  }
+
+  /**
+   * @return response body
+   */
+  private String postPatch(@NotNull final String url, @NotNull final StreamingRequestEntity entity, @NotNull final String comment) throws IOException, ECommunicationException, EAuthorizationException {
+    final PostMethod postMethod = new PostMethod(createUploadPatchUrl(url));
+    try {
+      addAuthorizationHeader(postMethod);
+      postMethod.setRequestHeader("Accept", "text/plain");
+      postMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      if (entity.isCompressed()) {
+        postMethod.setRequestHeader("Content-Encoding", "gzip");
       }
 
+      postMethod.setRequestEntity(entity);
+      postMethod.setQueryString(new NameValuePair[] { new NameValuePair("userId", String.valueOf(getCurrentUser())),
+        new NameValuePair("description", comment),
+        new NameValuePair("date", String.valueOf(System.currentTimeMillis())),
+        new NameValuePair("commitType", String.valueOf(PreTestedCommitType.NONE.getId())), });
+      myHttpClient.executeMethod(postMethod);
+
+      if (postMethod.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+        throw new EAuthorizationException("Server rejected the credentials of " + mySession.getUsername() + " on /" + url);
+      }
       if (postMethod.getStatusCode() >= 400) {
-        throw new ECommunicationException("Error creating change list on server with /" + UPLOAD_URL + ": " + postMethod.getResponseBodyAsString() +
+        throw new ECommunicationException("Error creating change list on server with /" + url + ": " + postMethod.getResponseBodyAsString() +
                                           "; take a look at TeamCity/logs/teamcity-server.log file for details. HTTP Status code: " + postMethod.getStatusCode());
       }
+      return postMethod.getResponseBodyAsString();
 
-      // post requests to queue
-      final String response = postMethod.getResponseBodyAsString();
-
-      monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("sent %d bytes", patchFile.length())));
-      monitor.done();
-      return Long.parseLong(response);
-
-    } catch (IOException e) {
-      throw new ECommunicationException(e);
     } finally {
-      if (connection != null) {
-        connection.close();
-      }
+      postMethod.releaseConnection();
     }
   }
 
+  private long getChangeListId(@NotNull final String response, @NotNull final StreamingRequestEntity entity, @NotNull final IProgressMonitor monitor) {
+    if (entity.isCompressed()) {
+      monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("sent %d bytes (%d bytes uncompressed)", entity.getWritten(), entity.getPatchSize())));
+    } else {
+      monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("sent %d bytes", entity.getWritten())));
+    }
+    monitor.done();
+    return Long.parseLong(response.trim());
+  }
+
   @NotNull
-  private String createUploadPatchUrl() {
+  private String createUploadPatchUrl(@NotNull final String uploadUrl) {
     String result = getURL();
     if (!result.endsWith("/")) {
       result += "/";
     }
-    result += UPLOAD_URL;
+    result += uploadUrl;
     return result;
   }
 
-  @NotNull
-  private HttpConnection getHttpConnection() throws IOException {
-    final SimpleHttpConnectionManager manager = new SimpleHttpConnectionManager(true);
-    HostConfiguration hostConfiguration = new HostConfiguration();
-    hostConfiguration.setHost(new URI(getURL(), false));
-    HttpConnection connection = manager.getConnection(hostConfiguration);
-
-    if (!connection.isOpen()) {
-      connection.open();
-    }
-    return connection;
-  }
-
-  private void addAuthorizationHeader(@NotNull PostMethod method) {
+  private void addAuthorizationHeader(@NotNull HttpMethod method) {
     final String crePair = mySession.getUsername() + ":" + mySession.getPassword();
     try {
       String encoded = Base64.getEncoder().encodeToString(crePair.getBytes("US-ASCII")); // we expect ASCII login name and password here
@@ -223,6 +497,97 @@ public class Server {
 
 
   public void dispose() {
+    Debug.getInstance().debug(Server.class, "HTTP connections (XML-RPC not included): " + myConnectionPool);
+    myConnectionPool.shutdown();
     mySession.dispose();
   }
-}
\ No newline at end of file
+
+  /**
+   * Writes the patch into the request body, gzipped if required. Unknown content length makes HttpClient use chunked transfer encoding
+   */
+  static class StreamingRequestEntity implements RequestEntity {
+
+    private final IPatchWriter myWriter;
+    private final long myContentLength;
+    private final boolean myCompressed;
+    private long myWritten;
+    private long myPatchSize;
+
+    StreamingRequestEntity(@NotNull final IPatchWriter writer, final long contentLength, final boolean compressed) {
+      myWriter = writer;
+      myContentLength = compressed ? -1 : contentLength;
+      myCompressed = compressed;
+    }
+
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    public void writeRequest(final OutputStream out) throws IOException {
+      final CountingOutputStream wire = new CountingOutputStream(out);
+      final GZIPOutputStream gzip = myCompressed ? new GZIPOutputStream(wire, BUFFER_SIZE) : null;
+      final CountingOutputStream patch = new CountingOutputStream(gzip != null ? gzip : wire);
+      myWriter.write(patch);
+      patch.flush();
+      if (gzip != null) {
+        gzip.finish();
+      }
+      wire.flush();
+      myWritten = wire.getCount();
+      myPatchSize = patch.getCount();
+    }
+
+    public long getContentLength() {
+      return myContentLength;
+    }
+
+    public String getContentType() {
+      return null;
+    }
+
+    boolean isCompressed() {
+      return myCompressed;
+    }
+
+    long getWritten() {
+      return myWritten;
+    }
+
+    long getPatchSize() {
+      return myPatchSize;
+    }
+  }
+
+  /**
+   * close() only flushes: the underlying stream belongs to HttpClient
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    private long myCount;
+
+    CountingOutputStream(final OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      out.write(b);
+      myCount++;
+    }
+
+    @Override
+    public void write(@NotNull final byte[] b, final int off, final int len) throws IOException {
+      out.write(b, off, len);
+      myCount += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+
+    long getCount() {
+      return myCount;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.jetbrains.teamcity;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Time spent in the phases of a run, reported under --debug. Nothing is recorded unless {@link #start()} is called
+ */
+public class StartupProfile {
+
+  public static final String STORAGE_LOAD = "Storage load"; //$NON-NLS-1$
+  public static final String XSTREAM_INIT = "XStream init"; //$NON-NLS-1$
+  public static final String CONNECT = "connect"; //$NON-NLS-1$
+  public static final String COMMAND = "command"; //$NON-NLS-1$
+
+  private static final LinkedHashMap<String, Long> ourPhases = new LinkedHashMap<String, Long>();
+  private static boolean ourStarted;
+  private static boolean ourJvmReported;
+  private static long ourStartTime;
+  private static long ourJvmTime;
+
+  /**
+   * starts recording the phases of a new run
+   */
+  public static synchronized void start() {
+    ourPhases.clear();
+    ourStarted = true;
+    ourStartTime = System.nanoTime();
+    // the JVM start is paid by the first run of the process only, loading of the management classes is not its part
+    ourJvmTime = ourJvmReported ? 0 : ManagementFactory.getRuntimeMXBean().getUptime() - (System.nanoTime() - ourStartTime) / 1000000;
+    ourJvmReported = true;
+  }
+
+  /**
+   * @return start time of a phase for {@link #record(String, long)}
+   */
+  public static long begin() {
+    return System.nanoTime();
+  }
+
+  public static synchronized void record(@NotNull final String phase, final long begin) {
+    if (ourStarted) {
+      final Long time = ourPhases.get(phase);
+      ourPhases.put(phase, (time != null ? time : 0) + System.nanoTime() - begin);
+    }
+  }
+
+  /**
+   * prints the recorded phases in debug mode and stops recording
+   */
+  public static synchronized void report() {
+    if (ourStarted) {
+      Debug.getInstance().debug(StartupProfile.class, describe());
+      ourStarted = false;
+    }
+  }
+
+  @NotNull
+  static synchronized String describe() {
+    final StringBuilder result = new StringBuilder();
+    if (ourJvmTime > 0) {
+      result.append(String.format("JVM start and launcher class loading %d ms, ", ourJvmTime)); //$NON-NLS-1$
+    }
+    for (final Map.Entry<String, Long> phase : ourPhases.entrySet()) {
+      result.append(String.format("%s %d ms, ", phase.getKey(), phase.getValue() / 1000000)); //$NON-NLS-1$
+    }
+    result.append(String.format("total %d ms, %d classes loaded", ourJvmTime + (System.nanoTime() - ourStartTime) / 1000000, //$NON-NLS-1$
+                                ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount()));
+    return result.toString();
+  }
+}
@@ -1,17 +1,16 @@
 
 package com.jetbrains.teamcity;
 
-import com.thoughtworks.xstream.XStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.Serializable;
 import java.nio.file.NoSuchFileException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import jetbrains.buildServer.messages.XStreamHolder;
 import jetbrains.buildServer.util.FileUtil;
-import jetbrains.buildServer.xstream.ServerXStreamFormat;
-import jetbrains.buildServer.xstream.XStreamWrapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 //TODO: support parallel working!!!
 public class Storage {
@@ -21,30 +20,59 @@ public class Storage {
   public static final String TC_CLI_HOME = "/.TeamCity-CommandLine"; //$NON-NLS-1$
   public static final String TC_STORAGE_DEFAULT_FILENAME = TC_CLI_HOME + "/.tcstorage"; //$NON-NLS-1$
 
+  /**
+   * "xml" keeps the storage in the XML format of the older versions of the tool, the binary format is used otherwise
+   */
+  public static final String TC_STORAGE_FORMAT_PROPERTY_NAME = "teamcity.cli.storage.format"; //$NON-NLS-1$
+
   private static Storage ourInstance;
 
   private static IStorageFS ourStorageFS;
 
+  /**
+   * values read or put so far
+   */
   private final HashMap<Object, Serializable> myStorage = new HashMap<Object, Serializable>();
 
+  /**
+   * values put since the last flush
+   */
+  private final LinkedHashMap<Object, Serializable> myChanged = new LinkedHashMap<Object, Serializable>();
+
   private final String myStorageFile;
 
+  private long myTimestamp;
+
   private Storage() {
     // init storage
+    myStorageFile = locateStorageFile();
+    final long begin = StartupProfile.begin();
+    ourStorageFS = createStorageFS(myStorageFile);
+    ourStorageFS.load();
+    StartupProfile.record(StartupProfile.STORAGE_LOAD, begin);
+    myTimestamp = ourStorageFS.getTimestamp();
+  }
+
+  @NotNull
+  private static IStorageFS createStorageFS(@NotNull final String storageFile) {
+    if ("xml".equalsIgnoreCase(System.getProperty(TC_STORAGE_FORMAT_PROPERTY_NAME))) { //$NON-NLS-1$
+      return new XMLStorageFS(storageFile);
+    }
+    return new BinaryStorageFS(storageFile);
+  }
+
+  private static String locateStorageFile() {
     final String storageFile = System.getProperty(TC_STORAGE_PROPERTY_NAME);
     if (storageFile != null) {// -D
-      myStorageFile = storageFile;
+      return storageFile;
 
     } else if (System.getenv(TC_STORAGE_ENVIRONMENT_VARIABLE_PROPERTY_NAME) != null) {// env
-      myStorageFile = System.getenv(TC_STORAGE_ENVIRONMENT_VARIABLE_PROPERTY_NAME);
+      return System.getenv(TC_STORAGE_ENVIRONMENT_VARIABLE_PROPERTY_NAME);
 
     } else {// default
       final String home = System.getProperty("user.home"); //$NON-NLS-1$
-      myStorageFile = home + File.separator + TC_STORAGE_DEFAULT_FILENAME;
+      return home + File.separator + TC_STORAGE_DEFAULT_FILENAME;
     }
-
-    ourStorageFS = new XMLStorageFS(myStorageFile);
-    ourStorageFS.load(myStorage);
   }
 
   public synchronized static Storage getInstance() {
@@ -54,24 +82,59 @@ public class Storage {
     return ourInstance;
   }
 
-  synchronized static void reload() {
+  /**
+   * @return folder of the storage file. Per-workspace caches are kept there as well
+   */
+  public File getStorageFolder() {
+    return new File(myStorageFile).getAbsoluteFile().getParentFile();
+  }
+
+  /**
+   * @return folder of the storage file, the storage is not read
+   */
+  public static File locateStorageFolder() {
+    return new File(locateStorageFile()).getAbsoluteFile().getParentFile();
+  }
+
+  public synchronized static void reload() {
     ourInstance = new Storage();
   }
 
+  /**
+   * Reads the storage file again if another process has changed it since it was read or written by this one
+   */
+  public synchronized static void refresh() {
+    if (ourInstance != null && ourInstance.myTimestamp != ourStorageFS.getTimestamp()) {
+      reload();
+    }
+  }
+
   @SuppressWarnings("unchecked")
   public synchronized <T extends Serializable> T get(final IKey<T> key) {
-    return (T) myStorage.get(key.getKey());
+    final Object storageKey = key.getKey();
+    if (!myStorage.containsKey(storageKey)) {
+      myStorage.put(storageKey, ourStorageFS.read(storageKey));
+    }
+    return (T) myStorage.get(storageKey);
   }
 
   public synchronized <T extends Serializable> void put(final IKey<T> key, T value, final boolean flush) {
     myStorage.put(key.getKey(), value);
+    myChanged.put(key.getKey(), value);
     if (flush) {
       flush();
     }
   }
 
+  /**
+   * writes the values put since the last flush
+   */
   public synchronized void flush() {
-    ourStorageFS.save(myStorage);
+    if (!myChanged.isEmpty()) {
+      ourStorageFS.save(myChanged);
+      myChanged.clear();
+    }
+    myTimestamp = ourStorageFS.getTimestamp();
   }
 
   public synchronized <T extends Serializable> void put(final IKey<T> key, T value) {
@@ -82,56 +145,85 @@ public class Storage {
     Object getKey();
   }
 
-  private interface IStorageFS {
-    void save(final HashMap<Object, Serializable> storage);
-
-    Map<Object, Serializable> load(final HashMap<Object, Serializable> storage);
+  interface IStorageFS {
+    /**
+     * reads the stored entries, a value may be read only by {@link #read(Object)}
+     */
+    void load();
+
+    /**
+     * @return the stored value, null if there is no such key
+     */
+    @Nullable
+    Serializable read(@NotNull final Object key);
+
+    /**
+     * @param changed entries to write, null value removes the entry
+     */
+    void save(@NotNull final Map<Object, Serializable> changed);
+
+    /**
+     * @return time the storage was last written, 0 if it does not exist
+     */
+    long getTimestamp();
   }
 
-  private static class XMLStorageFS implements IStorageFS {
+  /**
+   * The whole storage serialized by XStream, read and written at once
+   */
+  static class XMLStorageFS implements IStorageFS {
 
-    private final String myStorageFile;
+    static final String EXTENSION = ".xml"; //$NON-NLS-1$
 
-    public XMLStorageFS(final String myStorageFile) {
-      this.myStorageFile = myStorageFile + ".xml"; //$NON-NLS-1$
-    }
+    private final String myStorageFile;
 
-    // TODO: move to utils
-    private <T> T deserializeObject(final Object typeData) {
-      return XStreamWrapper.<T> deserializeObject((String) typeData, ourXStreamHolder);
-    }
+    private final HashMap<Object, Serializable> myStorage = new HashMap<Object, Serializable>();
 
-    // TODO: move to utils
-    private String serializeObject(final Object typeData) {
-      return XStreamWrapper.serializeObject(typeData, ourXStreamHolder);
+    public XMLStorageFS(final String myStorageFile) {
+      this.myStorageFile = myStorageFile + EXTENSION;
     }
 
-    // TODO: move to utils
-    private static final XStreamHolder ourXStreamHolder = new XStreamHolder() {
-      protected void configureXStream(XStream xStream) {
-        ServerXStreamFormat.formatXStream(xStream);
-      }
-    };
-
-    public Map<Object, Serializable> load(HashMap<Object, Serializable> storage) {
+    public void load() {
       try {
-        storage.clear();
+        myStorage.clear();
         final String content = FileUtil.readText(new File(getStorageFile()));
-        storage.putAll((Map<?, ? extends Serializable>) deserializeObject(content));
+        myStorage.putAll((Map<?, ? extends Serializable>) XStreamUtil.deserializeObject(content));
       } catch (FileNotFoundException|NoSuchFileException e) {
         // do nothing
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
-      return storage;
     }
 
-    public void save(HashMap<Object, Serializable> storage) {
-      final String xml = serializeObject(storage);
+    public Serializable read(@NotNull final Object key) {
+      return myStorage.get(key);
+    }
+
+    /**
+     * @return all stored entries
+     */
+    @NotNull
+    Map<Object, Serializable> getEntries() {
+      return myStorage;
+    }
+
+    public void save(@NotNull final Map<Object, Serializable> changed) {
+      for (final Map.Entry<Object, Serializable> entry : changed.entrySet()) {
+        if (entry.getValue() != null) {
+          myStorage.put(entry.getKey(), entry.getValue());
+        } else {
+          myStorage.remove(entry.getKey());
+        }
+      }
+      final String xml = XStreamUtil.serializeObject(myStorage);
       FileUtil.writeFile(new File(getStorageFile()), xml);
     }
 
-    private String getStorageFile() {
+    public long getTimestamp() {
+      return new File(getStorageFile()).lastModified();
+    }
+
+    String getStorageFile() {
       return this.myStorageFile;
     }
 
@@ -1,6 +1,7 @@
 
 package com.jetbrains.teamcity;
 
+import com.jetbrains.teamcity.resources.TCWorkspace;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -9,16 +10,53 @@ import java.lang.reflect.Method;
 import java.text.MessageFormat;
 import java.util.*;
 import java.util.regex.Pattern;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
 import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.util.StringUtil;
 
 public class Util {
 
-  public static IFileFilter CVS_FILES_FILTER = new CVSFilter();
+  public static final IFileFilter CVS_FILES_FILTER = new CVSFilter();
 
-  public static IFileFilter SVN_FILES_FILTER = new SVNFilter();
+  public static final IFileFilter SVN_FILES_FILTER = new SVNFilter();
 
-  private static final Pattern ASTERISK_PATTERN = Pattern.compile(".*"); //$NON-NLS-1$
+  public static final IFileFilter TCC_FILES_FILTER = new TCCFilter();
+
+  /**
+   * drops VCS administrative files and TeamCity mapping files
+   */
+  public static final IFileFilter SERVICE_FILES_FILTER = compose(CVS_FILES_FILTER, SVN_FILES_FILTER, TCC_FILES_FILTER);
+
+  private static final IFileFilter ALL_FILES_FILTER = compose();
+
+  private static File ourWorkingDirectory;
+
+  /**
+   * @return folder relative paths are resolved against. The current folder unless a command runs for a client of the
+   *         resident process, the JVM can not change its own current folder
+   */
+  public static synchronized File getWorkingDirectory() {
+    return ourWorkingDirectory != null ? ourWorkingDirectory : new File("."); //$NON-NLS-1$
+  }
+
+  /**
+   * @param folder folder of the client of the resident process, null to use the current folder again
+   */
+  public static synchronized void setWorkingDirectory(final File folder) {
+    ourWorkingDirectory = folder;
+  }
+
+  /**
+   * @return the file, relative path resolved against {@link #getWorkingDirectory()}
+   */
+  public static synchronized File resolve(final String path) {
+    final File file = new File(path);
+    if (file.isAbsolute() || ourWorkingDirectory == null) {
+      return file;
+    }
+    return new File(ourWorkingDirectory, path);
+  }
 
   public static String getArgumentValue(final String[] args, final String... arguments) {
     final List<String> res = getArgumentValues(args, arguments);
@@ -56,7 +94,7 @@ public class Util {
     List<String> l = new ArrayList<String>();
     File r;
     try {
-      r = f.getCanonicalFile();
+      r = CanonicalPathCache.getInstance().getCanonicalFile(f);
       while (r != null) {
         l.add(r.getName());
         r = r.getParentFile();
@@ -118,20 +156,29 @@ public class Util {
   }
 
   public static Collection<File> getFiles(final String path) throws IllegalArgumentException {
+    return getFiles(path, ALL_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+  }
+
+  /**
+   * @param filter
+   *          gets paths relative to the folder being walked, paths of single files and files matched by a pattern are
+   *          relative to {@link #getWorkingDirectory()}
+   */
+  public static Collection<File> getFiles(final String path, final IFileFilter filter, final IProgressMonitor monitor) throws IllegalArgumentException {
     try {
-      final File simpleFile = new File(path).getCanonicalFile().getAbsoluteFile();
+      final File simpleFile = CanonicalPathCache.getInstance().getCanonicalFile(resolve(path));
+      if (simpleFile.exists() && simpleFile.isDirectory()) {
+        return new ParallelFileWalker(filter).walk(simpleFile, monitor);
+      }
+      final File root = CanonicalPathCache.getInstance().getCanonicalFile(getWorkingDirectory());
       if (simpleFile.exists() && simpleFile.isFile()) {
-        return Collections.singletonList(simpleFile);
-      } else if (simpleFile.exists() && simpleFile.isDirectory()) {
-        final ArrayList<File> list = new ArrayList<File>();
-        FileUtil.collectMatchedFiles(simpleFile, ASTERISK_PATTERN, list);
-        return list;
+        return filter(Collections.singletonList(simpleFile), root, filter);
       } else if (hasFilePatterns(path)) {
         final ArrayList<File> list = new ArrayList<File>();
         FileUtil.collectMatchedFiles(simpleFile, Pattern.compile(path), list);
-        return list;
+        return filter(list, root, filter);
       }
-      return Collections.singletonList(simpleFile);// let it be
+      return filter(Collections.singletonList(simpleFile), root, filter);// let it be
     } catch (IOException e) {
       throw new IllegalArgumentException(MessageFormat.format("Wrong path passed: {0}", path));
     }
@@ -142,6 +189,10 @@ public class Util {
   }
 
   public static Collection<File> getFiles(final File file) {
+    return getFiles(file, ALL_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+  }
+
+  public static Collection<File> getFiles(final File file, final IFileFilter filter, final IProgressMonitor monitor) {
     if (!file.exists()) {
       throw new IllegalArgumentException(MessageFormat.format("File is not found \"{0}\"", file.getAbsolutePath())); //$NON-NLS-1$
     }
@@ -153,7 +204,7 @@ public class Util {
       final HashSet<File> files = new HashSet<File>(content.size());
       for (String path : content) {
         if (path.trim().length() > 0) {
-          files.addAll(getFiles(path));
+          files.addAll(getFiles(path, filter, monitor));
         }
       }
       return files;
@@ -163,34 +214,149 @@ public class Util {
   }
 
   public interface IFileFilter {
-    public Collection<File> accept(final Collection<File> files);
+    /**
+     * @param file
+     *          the file or folder to check
+     * @param normalPath
+     *          lower-cased portable path of the file relative to the root being collected as computed by
+     *          {@link Util#getNormalPath(File, File)}. Folder paths end with '/'
+     * @return true if the file should be kept
+     */
+    public boolean accept(final File file, final String normalPath);
   }
 
-  private static class CVSFilter implements IFileFilter {
+  /**
+   * @return filter accepting a file only if all passed filters accept it
+   */
+  public static IFileFilter compose(final IFileFilter... filters) {
+    return new CompositeFilter(filters);
+  }
+
+  /**
+   * Single pass over the files: every path is normalized once and checked against the filter
+   * 
+   * @param root
+   *          folder the paths passed to the filter are relative to
+   */
+  public static Collection<File> filter(final Collection<File> files, final File root, final IFileFilter filter) {
+    final ArrayList<File> result = new ArrayList<File>(files.size());
+    for (final File file : files) {
+      if (filter.accept(file, getNormalPath(root, file))) {
+        result.add(file);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return lower-cased portable path of the file relative to the root. Relative files are taken as they are, the name
+   *         is used for a file outside of the root
+   */
+  public static String getNormalPath(final File root, final File file) {
+    final String path = file.getPath();
+    if (!file.isAbsolute()) {
+      return toPortableString(path.toLowerCase());
+    }
+    final String rootPath = root.getPath();
+    final int prefixLength = rootPath.endsWith(File.separator) ? rootPath.length() : rootPath.length() + 1;
+    if (path.length() > prefixLength && path.startsWith(rootPath) && path.charAt(prefixLength - 1) == File.separatorChar) {
+      return toPortableString(path.substring(prefixLength).toLowerCase());
+    }
+    return file.getName().toLowerCase();
+  }
 
-    public Collection<File> accept(Collection<File> files) {
-      final HashSet<File> result = new HashSet<File>();
-      for (final File file : files) {
-        final String normalPath = Util.toPortableString(file.getPath().toLowerCase());
-        if (!normalPath.endsWith("cvs/entries") && !normalPath.endsWith("cvs/repository") && !normalPath.endsWith("cvs/root")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-          result.add(file);
+  /**
+   * @param globs
+   *          ignore patterns: '*' and '?' do not cross folders, '**' does. A trailing '/' restricts the glob to folders,
+   *          e.g. "target/", ".git/", "*.iml". They are matched against the path relative to the root being collected
+   */
+  public static IFileFilter createIgnoreFilter(final Collection<String> globs) {
+    return new GlobFilter(globs);
+  }
+
+  private static class CompositeFilter implements IFileFilter {
+
+    private final IFileFilter[] myFilters;
+
+    CompositeFilter(final IFileFilter[] filters) {
+      myFilters = filters;
+    }
+
+    public boolean accept(final File file, final String normalPath) {
+      for (final IFileFilter filter : myFilters) {
+        if (!filter.accept(file, normalPath)) {
+          return false;
         }
       }
-      return result;
+      return true;
+    }
+  }
+
+  private static class CVSFilter implements IFileFilter {
+
+    public boolean accept(final File file, final String normalPath) {
+      return !normalPath.endsWith("cvs/entries") && !normalPath.endsWith("cvs/repository") && !normalPath.endsWith("cvs/root"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
   }
 
   private static class SVNFilter implements IFileFilter {
 
-    public Collection<File> accept(Collection<File> files) {
-      final HashSet<File> result = new HashSet<File>();
-      for (final File file : files) {
-        final String normalPath = file.getPath().toLowerCase();
-        if (!normalPath.contains(".svn")) { //$NON-NLS-1$
-          result.add(file);
+    public boolean accept(final File file, final String normalPath) {
+      return !normalPath.contains(".svn"); //$NON-NLS-1$
+    }
+  }
+
+  private static class TCCFilter implements IFileFilter {
+
+    public boolean accept(final File file, final String normalPath) {
+      return !normalPath.endsWith("/" + TCWorkspace.TCC_ADMIN_FILE) && !normalPath.equals(TCWorkspace.TCC_ADMIN_FILE); //$NON-NLS-1$
+    }
+  }
+
+  private static class GlobFilter implements IFileFilter {
+
+    private final List<Pattern> myPatterns = new ArrayList<Pattern>();
+
+    GlobFilter(final Collection<String> globs) {
+      for (final String glob : globs) {
+        String normalGlob = glob.trim().replace("\\", "/").toLowerCase(); //$NON-NLS-1$ //$NON-NLS-2$
+        if (normalGlob.length() == 0) {
+          continue;
+        }
+        final boolean folderOnly = normalGlob.endsWith("/"); //$NON-NLS-1$
+        normalGlob = StringUtil.removeTailingSlash(normalGlob);
+        // matches the glob at any depth, for folders also everything beneath them
+        myPatterns.add(Pattern.compile("(.*/)?" + globToRegex(normalGlob) + (folderOnly ? "/.*" : "(/.*)?"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      }
+    }
+
+    public boolean accept(final File file, final String normalPath) {
+      for (final Pattern pattern : myPatterns) {
+        if (pattern.matcher(normalPath).matches()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static String globToRegex(final String glob) {
+      final StringBuilder regex = new StringBuilder();
+      for (int i = 0; i < glob.length(); i++) {
+        final char c = glob.charAt(i);
+        if (c == '*') {
+          if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+            regex.append(".*"); //$NON-NLS-1$
+            i++;
+          } else {
+            regex.append("[^/]*"); //$NON-NLS-1$
+          }
+        } else if (c == '?') {
+          regex.append("[^/]"); //$NON-NLS-1$
+        } else {
+          regex.append(Pattern.quote(String.valueOf(c)));
         }
       }
-      return result;
+      return regex.toString();
     }
   }
 
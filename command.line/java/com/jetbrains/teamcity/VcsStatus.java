@@ -0,0 +1,160 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+import jetbrains.buildServer.core.runtime.IProgressStatus;
+import jetbrains.buildServer.core.runtime.ProgressStatus;
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Asks the local VCS client for modified, added, deleted and unversioned files of the working copy.
+ * Deleted files do not exist locally and are sent as deletions in the patch.
+ */
+public class VcsStatus {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+  /**
+   * seven status columns and a space
+   */
+  private static final int SVN_PATH_COLUMN = 8;
+
+  enum Vcs {
+    GIT(".git", UTF_8, "git", "status", "--porcelain", "-z", "--untracked-files=all"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+    HG(".hg", UTF_8, "hg", "status", "-m", "-a", "-r", "-d", "-u", "-n", "-0"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$
+    SVN(".svn", Charset.defaultCharset(), "svn", "status"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    private final String myAdminFolder;
+    private final Charset myCharset;
+    private final String[] myCommand;
+
+    Vcs(final String adminFolder, final Charset charset, final String... command) {
+      myAdminFolder = adminFolder;
+      myCharset = charset;
+      myCommand = command;
+    }
+
+    /**
+     * @return paths relative to the working copy root
+     */
+    List<String> parse(final String output) {
+      switch (this) {
+        case GIT:
+          return parseGitStatus(output);
+        case HG:
+          return parseHgStatus(output);
+        default:
+          return parseSvnStatus(output);
+      }
+    }
+  }
+
+  /**
+   * @return changed files under the folder or null if the folder is not under a supported VCS or the VCS client failed
+   */
+  @Nullable
+  public static Collection<File> getChangedFiles(@NotNull final File folder, @NotNull final Util.IFileFilter filter, @NotNull final IProgressMonitor monitor) {
+    final File canonicalFolder;
+    try {
+      canonicalFolder = CanonicalPathCache.getInstance().getCanonicalFile(folder);
+    } catch (IOException e) {
+      Debug.getInstance().error(VcsStatus.class, e.getMessage(), e);
+      return null;
+    }
+    // the nearest working copy root wins
+    for (File root = canonicalFolder; root != null; root = root.getParentFile()) {
+      for (final Vcs vcs : Vcs.values()) {
+        if (new File(root, vcs.myAdminFolder).exists()) {
+          return getChangedFiles(vcs, root, canonicalFolder, filter, monitor);
+        }
+      }
+    }
+    Debug.getInstance().debug(VcsStatus.class, String.format("\"%s\" is not under Git, Mercurial or Subversion", canonicalFolder));
+    return null;
+  }
+
+  @Nullable
+  private static Collection<File> getChangedFiles(final Vcs vcs, final File root, final File folder, final Util.IFileFilter filter, final IProgressMonitor monitor) {
+    final List<String> paths;
+    try {
+      paths = vcs.parse(new String(RuntimeUtil.execAndRead(vcs.myCommand, root, monitor), vcs.myCharset));
+    } catch (IOException e) {
+      Debug.getInstance().error(VcsStatus.class, String.format("Could not get %s status of \"%s\"", vcs, root), e);
+      return null;
+    }
+    // keep changes beneath the requested folder only
+    final String folderPrefix = folder.getPath() + File.separator;
+    final ArrayList<File> files = new ArrayList<File>(paths.size());
+    for (final String path : paths) {
+      final File file = new File(root, path);
+      if (!folder.equals(root) && !file.getPath().startsWith(folderPrefix)) {
+        continue;
+      }
+      if (file.isDirectory()) {
+        // svn reports unversioned folders as a single entry
+        if (filter.accept(file, Util.getNormalPath(folder, file) + "/")) { //$NON-NLS-1$
+          files.addAll(new ParallelFileWalker(filter).walk(file, folder, RuntimeUtil.NULL_MONITOR));
+        }
+      } else if (filter.accept(file, Util.getNormalPath(folder, file))) {
+        files.add(file);
+      }
+    }
+    monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("%d changed file(s) reported by %s", files.size(), vcs.name().toLowerCase())));
+    return files;
+  }
+
+  /**
+   * "XY path\0" entries; renames and copies are followed by "\0origPath"
+   */
+  static List<String> parseGitStatus(final String output) {
+    final ArrayList<String> result = new ArrayList<String>();
+    final String[] entries = output.split("\0"); //$NON-NLS-1$
+    for (int i = 0; i < entries.length; i++) {
+      final String entry = entries[i];
+      if (entry.length() < 4) {
+        continue;
+      }
+      result.add(entry.substring(3));
+      final char index = entry.charAt(0);
+      if ((index == 'R' || index == 'C') && i + 1 < entries.length) {
+        if (index == 'R') {
+          result.add(entries[i + 1]);// the source of a rename is deleted
+        }
+        i++;
+      }
+    }
+    return result;
+  }
+
+  static List<String> parseHgStatus(final String output) {
+    final ArrayList<String> result = new ArrayList<String>();
+    for (final String path : output.split("\0")) { //$NON-NLS-1$
+      if (path.trim().length() > 0) {
+        result.add(path);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * {@link #SVN_PATH_COLUMN} status columns followed by the path. Only the first (content) column is considered: property changes,
+   * externals and ignored items are skipped
+   */
+  static List<String> parseSvnStatus(final String output) {
+    final ArrayList<String> result = new ArrayList<String>();
+    // the line ending is the only separator, the path may start or end with spaces
+    for (final String line : output.split("\r?\n")) { //$NON-NLS-1$
+      if (line.length() > SVN_PATH_COLUMN && "MADR?!C".indexOf(line.charAt(0)) >= 0) { //$NON-NLS-1$
+        result.add(line.substring(SVN_PATH_COLUMN));
+      }
+    }
+    return result;
+  }
+
+}
@@ -8,22 +8,39 @@ import jetbrains.buildServer.xstream.XStreamWrapper;
 import java.io.IOException;
 import java.util.Vector;
 
+/**
+ * The only XStream of the tool, shared by the {@link Storage} and the server calls. Configuring it is expensive, so
+ * it is built on the first use and commands which serialize nothing never pay for it
+ */
 public class XStreamUtil {
-  private final static XStreamHolder ourXStreamHolder = new XStreamHolder() {
-    protected void configureXStream(XStream xStream) {
-      ServerXStreamFormat.formatXStream(xStream);
-    }
-  };
+
+  private static class Holder {
+    private static final XStreamHolder ourXStreamHolder = new XStreamHolder() {
+      protected void configureXStream(XStream xStream) {
+        final long begin = StartupProfile.begin();
+        ServerXStreamFormat.formatXStream(xStream);
+        StartupProfile.record(StartupProfile.XSTREAM_INIT, begin);
+      }
+    };
+  }
+
+  static XStreamHolder getXStreamHolder() {
+    return Holder.ourXStreamHolder;
+  }
 
   public static <T> T deserializeObject(final Object typeData) {
-    return XStreamWrapper.<T>deserializeObject((String) typeData, ourXStreamHolder);
+    return XStreamWrapper.<T>deserializeObject((String) typeData, getXStreamHolder());
+  }
+
+  public static String serializeObject(final Object object) {
+    return XStreamWrapper.serializeObject(object, getXStreamHolder());
   }
 
   public static <T> Vector serializeObjects(final java.util.List<T> list) {
-    return XStreamWrapper.<T>serializeObjects(list, ourXStreamHolder);
+    return XStreamWrapper.<T>serializeObjects(list, getXStreamHolder());
   }
 
   public static <T> T unzipAndDeserializeObject(final Object typeData) throws IOException {
-    return XStreamWrapper.<T>unzipAndDeserializeObject((byte[]) typeData, ourXStreamHolder);
+    return XStreamWrapper.<T>unzipAndDeserializeObject((byte[]) typeData, getXStreamHolder());
   }
 }
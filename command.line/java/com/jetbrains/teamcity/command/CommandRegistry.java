@@ -136,6 +136,7 @@ class CommandRegistry {
     return ourInstance;
   }
 
+
   synchronized void register(final ICommand command) {
     if (!ourRegistry.containsKey(command.getId())) {
       ourRegistry.put(command.getId(), command);
@@ -146,4 +147,19 @@ class CommandRegistry {
     return ourRegistry.get(id);
   }
 
+  /**
+   * @return new instance of the registered command, free of the state of a previous run. Null if the command is unknown
+   */
+  synchronized ICommand newCommand(final String id) {
+    final ICommand registered = ourRegistry.get(id);
+    if (registered == null) {
+      return null;
+    }
+    try {
+      return registered.getClass().newInstance();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
 }
\ No newline at end of file
@@ -45,15 +45,21 @@ public class  CommandRunner {
     Args.registerArgument(HOST_ARG, String.format(".*%s\\s+https*://.+", HOST_ARG)); //$NON-NLS-1$
   }
 
-  void run(final String[] args) throws Exception {
+  /**
+   * @return exit code of the tool
+   */
+  int run(final String[] args) throws Exception {
     final Args arguments = new Args(args);
     /**
      * instantiate Debug and set mode according to command line
      */
     final Debug debug = Debug.getInstance();
     debug.setDebug(arguments.isDebugOn());
-    //wrap Console to reduce stdout in silent mode
-    final IProgressMonitor consoleMonitor = RuntimeUtil.CONSOLE_MONITOR;
+    if (arguments.isDebugOn()) {
+      StartupProfile.start();
+    }
+    //wrap Console to reduce stdout in silent mode, a resident process runs many commands so the monitor is not shared
+    final IProgressMonitor consoleMonitor = RuntimeUtil.createConsoleMonitor();
     final IProgressMonitor monitor = new IProgressMonitor() {
 
       public void status(IProgressStatus status) {
@@ -82,7 +88,7 @@ public class  CommandRunner {
       }
     };
     
-    final ICommand command = CommandRegistry.getInstance().getCommand(arguments.getCommandId());
+    final ICommand command = CommandRegistry.getInstance().newCommand(arguments.getCommandId());
     if (command != null) {
       try {
         command.validate(arguments);
@@ -90,16 +96,16 @@ public class  CommandRunner {
           Server server = null;
           try {
             server = openConnection(arguments, monitor);
-            command.execute(server, arguments, monitor);
+            execute(command, server, arguments, monitor);
           }
           finally {
             if (server != null) {
-              server.dispose();
+              release(server);
             }
           }
         }
         else {
-          command.execute(null, arguments, monitor);
+          execute(command, null, arguments, monitor);
         }
         // print success result
         reportResult(command);
@@ -107,18 +113,36 @@ public class  CommandRunner {
         // print error result
         monitor.status(new ProgressStatus(IProgressStatus.ERROR, String.format(Messages.getString("CommandRunner.monitor.error.found"), command.getId())));
         reportError(command, e);
-        System.exit(-1);
+        return -1;
+      } finally {
+        StartupProfile.report();
       }
     } else {
       final ICommand helpCommand = CommandRegistry.getInstance().getCommand(Help.ID);
-      helpCommand.execute(null, arguments, monitor);
+      execute(helpCommand, null, arguments, monitor);
       reportResult(helpCommand);
+      StartupProfile.report();
+    }
+    return 0;
+  }
+
+  private static void execute(final ICommand command, final Server server, final Args args, final IProgressMonitor monitor) throws Exception {
+    final long begin = StartupProfile.begin();
+    try {
+      command.execute(server, args, monitor);
+    } finally {
+      StartupProfile.record(StartupProfile.COMMAND, begin);
     }
   }
 
   public static void main(final String[] args) throws Exception {
-    new CommandRunner().run(args);
-    System.exit(0);
+    if (DaemonClient.isEnabled()) {
+      final Integer exitCode = DaemonClient.run(args);
+      if (exitCode != null) {
+        System.exit(exitCode);
+      }
+    }
+    System.exit(new CommandRunner().run(args));
   }
 
   private static void reportError(final ICommand command, final Throwable e) {
@@ -161,7 +185,7 @@ public class  CommandRunner {
     }
   }
 
-  static Server openConnection(final Args args, final IProgressMonitor monitor) throws MalformedURLException, ECommunicationException, EAuthorizationException {
+  Server openConnection(final Args args, final IProgressMonitor monitor) throws MalformedURLException, ECommunicationException, EAuthorizationException {
     final String host = getHost(args);
     if (host != null) {
       String user;
@@ -186,19 +210,32 @@ public class  CommandRunner {
           throw new IllegalArgumentException(MessageFormat.format(Messages.getString("CommandRunner.not.logged.in.error.pattern"), host)); //$NON-NLS-1$
         }
       }
-      final Server server = new Server(new URL(host));
-      monitor.beginTask(MessageFormat.format(Messages.getString("CommandRunner.connecting.step.name"), host)); //$NON-NLS-1$
-      server.connect();
-      monitor.done();
-      monitor.beginTask(Messages.getString("CommandRunner.logging.step.name")); //$NON-NLS-1$
-      server.logon(user, password);
-      monitor.done();
-      return server;
+      final long begin = StartupProfile.begin();
+      try {
+        return connect(host, user, password, monitor);
+      } finally {
+        StartupProfile.record(StartupProfile.CONNECT, begin);
+      }
     } else {
       throw new IllegalArgumentException(MessageFormat.format(Messages.getString("CommandRunner.no.default.host.error.pattern"), HOST_ARG)); //$NON-NLS-1$
     }
   }
 
+  Server connect(final String host, final String user, final String password, final IProgressMonitor monitor) throws MalformedURLException, ECommunicationException, EAuthorizationException {
+    final Server server = new Server(new URL(host));
+    monitor.beginTask(MessageFormat.format(Messages.getString("CommandRunner.connecting.step.name"), host)); //$NON-NLS-1$
+    server.connect();
+    monitor.done();
+    monitor.beginTask(Messages.getString("CommandRunner.logging.step.name")); //$NON-NLS-1$
+    server.logon(user, password);
+    monitor.done();
+    return server;
+  }
+
+  void release(final Server server) {
+    server.dispose();
+  }
+
   static String getHost(final Args args) {
     // load default(any) if omitted
     if (!args.hasArgument(HOST_ARG)) {
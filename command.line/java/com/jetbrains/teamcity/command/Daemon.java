@@ -0,0 +1,468 @@
+package com.jetbrains.teamcity.command;
+
+import com.jetbrains.teamcity.*;
+import com.jetbrains.teamcity.resources.TCAccess;
+import com.jetbrains.teamcity.resources.TCWorkspace;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resident process running commands for {@link DaemonClient}s of the same user, so a run does not pay for the JVM start,
+ * class loading, reading of the storage and the server logon. It listens on the loopback interface only and every
+ * request has to present the secret kept in the owner-only {@link #INFO_FILE}.<br>
+ * Commands run one at a time: System.out, System.err and System.in are switched to the client for the request, a
+ * client coming meanwhile is turned away and runs the command itself.
+ */
+public class Daemon {
+
+  static final int PROTOCOL_VERSION = 1;
+
+  /**
+   * file in the storage folder with the port and the secret of the running daemon
+   */
+  static final String INFO_FILE = ".tcdaemon"; //$NON-NLS-1$
+  static final String LOG_FILE = ".tcdaemon.log"; //$NON-NLS-1$
+
+  static final int ACCEPTED = 0;
+  /**
+   * the daemon runs another version of the tool or with other settings, it exits
+   */
+  static final int REFUSED = 1;
+  static final int BUSY = 2;
+
+  static final int EXIT_FRAME = 0;
+  static final int STDOUT_FRAME = 1;
+  static final int STDERR_FRAME = 2;
+
+  static final int HANDSHAKE_TIMEOUT = 1000 * 10;
+  private static final int ACCEPT_TIMEOUT = 1000 * 60;
+  private static final long IDLE_TIMEOUT = 1000 * 60 * 60 * 3;// 3 hours
+  /**
+   * less than the server session timeout
+   */
+  private static final long SERVER_IDLE_TIME = 1000 * 60 * 20;// 20 min
+
+  /**
+   * variables of the processes run by the tool, the ones changing with every shell like PWD are not there
+   */
+  private static final String[] ENVIRONMENT_VARIABLES = { "PATH", "HOME", "USERPROFILE", "TZ", "LANG", "LANGUAGE", "SSH_AUTH_SOCK" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+  private static final String[] ENVIRONMENT_VARIABLE_PREFIXES = { "LC_", "GIT_", "SVN_", "P4", "HG" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+  private final File myInfoFile;
+  private final String mySecret;
+  private final String myFingerprint;
+  private final HashMap<String, ResidentServer> myServers = new HashMap<String, ResidentServer>();
+  private ServerSocket mySocket;
+  private boolean myBusy;
+  private long myLastRequest = System.currentTimeMillis();
+
+  Daemon(@NotNull final File storageFolder) {
+    myInfoFile = new File(storageFolder, INFO_FILE);
+    mySecret = createSecret();
+    myFingerprint = getFingerprint();
+  }
+
+  public static void main(final String[] args) throws Exception {
+    new Daemon(Storage.locateStorageFolder()).serve();
+    System.exit(0);
+  }
+
+  void serve() throws IOException {
+    mySocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    mySocket.setSoTimeout(ACCEPT_TIMEOUT);
+    writeInfo();
+    Debug.getInstance().debug(Daemon.class, String.format("Listening on port %d", mySocket.getLocalPort()));
+    try {
+      while (!mySocket.isClosed()) {
+        try {
+          final Socket client = mySocket.accept();
+          final Thread handler = new Thread(new Runnable() {
+            public void run() {
+              handle(client);
+            }
+          }, "tcc daemon request"); //$NON-NLS-1$
+          handler.start();
+        } catch (SocketTimeoutException e) {
+          if (isIdle()) {
+            Debug.getInstance().debug(Daemon.class, "Idle for too long, exiting");
+            break;
+          }
+        } catch (SocketException e) {
+          // closed by a refused client
+        }
+      }
+    } finally {
+      stop();
+    }
+  }
+
+  private void close() {
+    try {
+      mySocket.close();
+    } catch (IOException e) {
+      // do nothing
+    }
+  }
+
+  private synchronized boolean isIdle() {
+    return !myBusy && System.currentTimeMillis() - myLastRequest > IDLE_TIMEOUT;
+  }
+
+  private synchronized boolean acquire() {
+    if (myBusy) {
+      return false;
+    }
+    myBusy = true;
+    return true;
+  }
+
+  private synchronized void release() {
+    myBusy = false;
+    myLastRequest = System.currentTimeMillis();
+    notifyAll();
+  }
+
+  /**
+   * waits for the running command and closes the server connections
+   */
+  private synchronized void stop() {
+    close();
+    while (myBusy) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+    for (final ResidentServer server : myServers.values()) {
+      server.getServer().dispose();
+    }
+    myServers.clear();
+    // a newer daemon may have replaced the file already
+    final String[] info = readInfo(myInfoFile);
+    if (info != null && mySecret.equals(info[1])) {
+      myInfoFile.delete();
+    }
+  }
+
+  private void handle(final Socket client) {
+    try {
+      client.setSoTimeout(HANDSHAKE_TIMEOUT);
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+      final int version = in.readInt();
+      if (!mySecret.equals(in.readUTF())) {
+        Debug.getInstance().debug(Daemon.class, "Request with a wrong secret ignored");
+        return;
+      }
+      if (version != PROTOCOL_VERSION || !myFingerprint.equals(in.readUTF())) {
+        Debug.getInstance().debug(Daemon.class, "Client of another version or settings, exiting");
+        out.writeInt(REFUSED);
+        out.flush();
+        close();
+        return;
+      }
+      if (!acquire()) {
+        out.writeInt(BUSY);
+        out.flush();
+        return;
+      }
+      try {
+        out.writeInt(ACCEPTED);
+        out.flush();
+        final File workingDirectory = new File(in.readUTF());
+        final String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+          args[i] = in.readUTF();
+        }
+        final byte[] input = new byte[in.readInt()];
+        in.readFully(input);
+        client.setSoTimeout(0);
+        final int exitCode = execute(workingDirectory, args, input, out);
+        synchronized (out) {
+          out.writeByte(EXIT_FRAME);
+          out.writeInt(exitCode);
+          out.flush();
+        }
+      } finally {
+        release();
+      }
+    } catch (IOException e) {
+      Debug.getInstance().error(Daemon.class, "Request failed", e);
+    } finally {
+      try {
+        client.close();
+      } catch (IOException e) {
+        // do nothing
+      }
+    }
+  }
+
+  private int execute(final File workingDirectory, final String[] args, final byte[] input, final DataOutputStream out) {
+    final PrintStream stdout = System.out;
+    final PrintStream stderr = System.err;
+    final InputStream stdin = System.in;
+    final PrintStream clientOut = new PrintStream(new FrameOutputStream(out, STDOUT_FRAME), true);
+    final PrintStream clientErr = new PrintStream(new FrameOutputStream(out, STDERR_FRAME), true);
+    System.setOut(clientOut);
+    System.setErr(clientErr);
+    System.setIn(new ByteArrayInputStream(input));
+    Util.setWorkingDirectory(workingDirectory);
+    try {
+      // other processes may have changed the settings. The command registry, the resolved mappings and canonical paths
+      // are kept: every run gets new command instances and the workspace revalidates the mappings by the admin files
+      Storage.refresh();
+      TCAccess.reload();
+      return new ResidentCommandRunner().run(args);
+    } catch (Throwable e) {
+      // the code CommandRunner returns for a failed command
+      e.printStackTrace();
+      return -1;
+    } finally {
+      clientOut.flush();
+      clientErr.flush();
+      Util.setWorkingDirectory(null);
+      System.setOut(stdout);
+      System.setErr(stderr);
+      System.setIn(stdin);
+    }
+  }
+
+  private void writeInfo() throws IOException {
+    final File tmp = new File(myInfoFile.getPath() + ".tmp"); //$NON-NLS-1$
+    tmp.getParentFile().mkdirs();
+    tmp.delete();
+    if (!tmp.createNewFile()) {
+      throw new IOException("Could not create " + tmp);
+    }
+    // owner only
+    tmp.setReadable(false, false);
+    tmp.setWritable(false, false);
+    tmp.setReadable(true, true);
+    tmp.setWritable(true, true);
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), UTF_8);
+    try {
+      writer.write(mySocket.getLocalPort() + "\n" + mySecret + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+    } finally {
+      writer.close();
+    }
+    myInfoFile.delete();
+    if (!tmp.renameTo(myInfoFile)) {
+      throw new IOException("Could not create " + myInfoFile);
+    }
+  }
+
+  /**
+   * @return port and secret of the running daemon, null if there is no one
+   */
+  @Nullable
+  static String[] readInfo(@NotNull final File infoFile) {
+    try {
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(infoFile), UTF_8));
+      try {
+        final String port = reader.readLine();
+        final String secret = reader.readLine();
+        return port != null && secret != null ? new String[] { port, secret } : null;
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  @NotNull
+  private static String createSecret() {
+    final byte[] bytes = new byte[32];
+    new SecureRandom().nextBytes(bytes);
+    return toHex(bytes);
+  }
+
+  /**
+   * @return digest of everything the daemon takes from its own process: the tool classes, the JVM, the environment
+   *         variables and the system properties read by the tool
+   */
+  @NotNull
+  static String getFingerprint() {
+    final StringBuilder result = new StringBuilder();
+    result.append(System.getProperty("java.home")).append('\n'); //$NON-NLS-1$
+    for (final String entry : System.getProperty("java.class.path").split(File.pathSeparator)) { //$NON-NLS-1$
+      result.append(entry).append(' ').append(new File(entry).lastModified()).append('\n');
+    }
+    for (final Map.Entry<String, String> variable : getToolEnvironment().entrySet()) {
+      result.append(variable.getKey()).append('=').append(variable.getValue()).append('\n');
+    }
+    for (final Map.Entry<String, String> property : getToolProperties().entrySet()) {
+      result.append(property.getKey()).append('=').append(property.getValue()).append('\n');
+    }
+    try {
+      return toHex(MessageDigest.getInstance("SHA-256").digest(result.toString().getBytes(UTF_8))); //$NON-NLS-1$
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return environment variables read by the tool and by the VCS clients it runs. The daemon runs them with the
+   *         environment of the client that started it, so a client with another one is refused
+   */
+  @NotNull
+  static SortedMap<String, String> getToolEnvironment() {
+    final TreeMap<String, String> result = new TreeMap<String, String>();
+    result.put(Storage.TC_STORAGE_ENVIRONMENT_VARIABLE_PROPERTY_NAME, System.getenv(Storage.TC_STORAGE_ENVIRONMENT_VARIABLE_PROPERTY_NAME));
+    result.put(TCWorkspace.TC_DEFAULT_CONFIG_ENVIRONMENT_VARIABLE, System.getenv(TCWorkspace.TC_DEFAULT_CONFIG_ENVIRONMENT_VARIABLE));
+    for (final Map.Entry<String, String> variable : System.getenv().entrySet()) {
+      if (isToolVariable(variable.getKey())) {
+        result.put(variable.getKey(), variable.getValue());
+      }
+    }
+    return result;
+  }
+
+  private static boolean isToolVariable(@NotNull final String name) {
+    for (final String variable : ENVIRONMENT_VARIABLES) {
+      // names are case insensitive on Windows
+      if (variable.equalsIgnoreCase(name)) {
+        return true;
+      }
+    }
+    for (final String prefix : ENVIRONMENT_VARIABLE_PREFIXES) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return system properties of the tool, the daemon is started with the properties of the client
+   */
+  @NotNull
+  static SortedMap<String, String> getToolProperties() {
+    final TreeMap<String, String> result = new TreeMap<String, String>();
+    for (final String name : System.getProperties().stringPropertyNames()) {
+      if (name.startsWith("teamcity.")) { //$NON-NLS-1$
+        result.put(name, System.getProperty(name));
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static String toHex(@NotNull final byte[] bytes) {
+    final StringBuilder result = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      result.append(String.format("%02x", b)); //$NON-NLS-1$
+    }
+    return result.toString();
+  }
+
+  /**
+   * Keeps server connections between the commands: the XML-RPC session and HTTP connections stay open
+   */
+  private class ResidentCommandRunner extends CommandRunner {
+
+    @Override
+    Server connect(final String host, final String user, final String password, final IProgressMonitor monitor) throws MalformedURLException, ECommunicationException, EAuthorizationException {
+      final String key = host + '\n' + user + '\n' + password;
+      synchronized (Daemon.this) {
+        final ResidentServer resident = myServers.remove(key);
+        if (resident != null) {
+          if (System.currentTimeMillis() - resident.getLastUsed() < SERVER_IDLE_TIME) {
+            Debug.getInstance().debug(Daemon.class, String.format("Reusing connection to %s", host));
+            myServers.put(key, resident);
+            resident.getServer().forgetProjects();
+            return resident.getServer();
+          }
+          resident.getServer().dispose();
+        }
+      }
+      final Server server = super.connect(host, user, password, monitor);
+      synchronized (Daemon.this) {
+        myServers.put(key, new ResidentServer(server));
+      }
+      return server;
+    }
+
+    @Override
+    void release(final Server server) {
+      synchronized (Daemon.this) {
+        for (final ResidentServer resident : myServers.values()) {
+          if (resident.getServer() == server) {
+            resident.touch();
+          }
+        }
+      }
+    }
+  }
+
+  private static class ResidentServer {
+
+    private final Server myServer;
+    private long myLastUsed = System.currentTimeMillis();
+
+    ResidentServer(@NotNull final Server server) {
+      myServer = server;
+    }
+
+    @NotNull
+    Server getServer() {
+      return myServer;
+    }
+
+    long getLastUsed() {
+      return myLastUsed;
+    }
+
+    void touch() {
+      myLastUsed = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Sends everything written as frames of the given type: type byte, length, bytes
+   */
+  private static class FrameOutputStream extends OutputStream {
+
+    private final DataOutputStream myOut;
+    private final int myType;
+
+    FrameOutputStream(@NotNull final DataOutputStream out, final int type) {
+      myOut = out;
+      myType = type;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      synchronized (myOut) {
+        myOut.writeByte(myType);
+        myOut.writeInt(len);
+        myOut.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (myOut) {
+        myOut.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package com.jetbrains.teamcity.command;
+
+import com.jetbrains.teamcity.Constants;
+import com.jetbrains.teamcity.Debug;
+import com.jetbrains.teamcity.Storage;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Passes the command line to the {@link Daemon} of the user and prints its output, the daemon is started if it does
+ * not run yet. Login asks for the password on the console, so it always runs in the tool itself.
+ */
+class DaemonClient {
+
+  private static final long START_TIMEOUT = 1000 * 10;
+  private static final long START_CHECK_INTERVAL = 100;
+
+  static boolean isEnabled() {
+    final String value = System.getProperty(Constants.DAEMON_SYSTEM_PROPERTY);
+    if (value != null) {// -D
+      return Boolean.parseBoolean(value.trim());
+    }
+    final String env = System.getenv(Constants.DAEMON_ENVIRONMENT_VARIABLE);
+    return env != null && Boolean.parseBoolean(env.trim());
+  }
+
+  /**
+   * @return exit code of the command, null if the daemon could not run it and the tool has to run it itself
+   */
+  @Nullable
+  static Integer run(@NotNull final String[] args) {
+    if (args.length > 0 && Messages.getString("Login.command.id").equals(args[0])) { //$NON-NLS-1$
+      return null;
+    }
+    final File storageFolder = Storage.locateStorageFolder();
+    final File infoFile = new File(storageFolder, Daemon.INFO_FILE);
+    try {
+      final String fingerprint = Daemon.getFingerprint();
+      String[] info = Daemon.readInfo(infoFile);
+      Socket socket = info != null ? connect(info) : null;
+      if (socket == null) {
+        startDaemon(storageFolder);
+        info = waitForDaemon(infoFile, info);
+        socket = info != null ? connect(info) : null;
+        if (socket == null) {
+          Debug.getInstance().debug(DaemonClient.class, "Daemon did not start, see " + new File(storageFolder, Daemon.LOG_FILE));
+          return null;
+        }
+      }
+      try {
+        return run(socket, info[1], fingerprint, args);
+      } finally {
+        socket.close();
+      }
+    } catch (IOException e) {
+      Debug.getInstance().debug(DaemonClient.class, "Could not use the daemon: " + e);
+      return null;
+    } catch (InterruptedException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  private static Integer run(@NotNull final Socket socket, @NotNull final String secret, @NotNull final String fingerprint, @NotNull final String[] args) throws IOException {
+    socket.setSoTimeout(Daemon.HANDSHAKE_TIMEOUT);
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    out.writeInt(Daemon.PROTOCOL_VERSION);
+    out.writeUTF(secret);
+    out.writeUTF(fingerprint);
+    out.flush();
+    final int reply = in.readInt();
+    if (reply != Daemon.ACCEPTED) {
+      Debug.getInstance().debug(DaemonClient.class, reply == Daemon.BUSY ? "Daemon is busy" : "Daemon of another version or settings");
+      return null;
+    }
+    out.writeUTF(new File("").getAbsolutePath()); //$NON-NLS-1$
+    out.writeInt(args.length);
+    for (final String arg : args) {
+      out.writeUTF(arg);
+    }
+    // commands read the standard input only if something is there
+    final byte[] input = System.in.available() != 0 ? readAll(System.in) : new byte[0];
+    out.writeInt(input.length);
+    out.write(input);
+    out.flush();
+    socket.setSoTimeout(0);
+    final byte[] buffer = new byte[8 * 1024];
+    while (true) {
+      final int type;
+      try {
+        type = in.readByte();
+      } catch (EOFException e) {
+        System.err.println(Messages.getString("DaemonClient.connection.lost.error.message")); //$NON-NLS-1$
+        return -1;
+      }
+      if (type == Daemon.EXIT_FRAME) {
+        System.out.flush();
+        System.err.flush();
+        return in.readInt();
+      }
+      final PrintStream stream = type == Daemon.STDERR_FRAME ? System.err : System.out;
+      int length = in.readInt();
+      while (length > 0) {
+        final int read = in.read(buffer, 0, Math.min(buffer.length, length));
+        if (read < 0) {
+          throw new EOFException();
+        }
+        stream.write(buffer, 0, read);
+        length -= read;
+      }
+      stream.flush();
+    }
+  }
+
+  @Nullable
+  private static Socket connect(@NotNull final String[] info) {
+    try {
+      return new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(info[0]));
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static void startDaemon(@NotNull final File storageFolder) throws IOException {
+    final List<String> command = new ArrayList<String>();
+    command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    for (final Map.Entry<String, String> property : Daemon.getToolProperties().entrySet()) {
+      command.add("-D" + property.getKey() + "=" + property.getValue()); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    command.add("-cp"); //$NON-NLS-1$
+    command.add(System.getProperty("java.class.path")); //$NON-NLS-1$
+    command.add(Daemon.class.getName());
+    storageFolder.mkdirs();
+    final File log = new File(storageFolder, Daemon.LOG_FILE);
+    final ProcessBuilder builder = new ProcessBuilder(command);
+    builder.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+    builder.redirectErrorStream(true);
+    builder.start().getOutputStream().close();
+    Debug.getInstance().debug(DaemonClient.class, "Daemon started: " + command);
+  }
+
+  /**
+   * @return port and secret of the started daemon, null if it has not started in time
+   */
+  @Nullable
+  private static String[] waitForDaemon(@NotNull final File infoFile, @Nullable final String[] staleInfo) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + START_TIMEOUT;
+    while (System.currentTimeMillis() < deadline) {
+      final String[] info = Daemon.readInfo(infoFile);
+      if (info != null && (staleInfo == null || !staleInfo[1].equals(info[1]))) {
+        return info;
+      }
+      Thread.sleep(START_CHECK_INTERVAL);
+    }
+    return null;
+  }
+
+  @NotNull
+  private static byte[] readAll(@NotNull final InputStream stream) throws IOException {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8 * 1024];
+    int read;
+    while ((read = stream.read(buffer)) != -1) {
+      result.write(buffer, 0, read);
+    }
+    return result.toByteArray();
+  }
+}
@@ -0,0 +1,48 @@
+package com.jetbrains.teamcity.command;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Copies file content with {@link FileChannel#transferTo}. The target is a stream, so this is not a zero-copy transfer:
+ * the JDK copies the data through its own small buffers, and a large file is never held in memory as a whole.
+ * Exactly the declared number of bytes is written, a file truncated meanwhile fails the copy.
+ */
+class FileChannelWriteFileContent implements LowLevelPatchBuilder.WriteFileContent {
+
+  private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+  private final File myFile;
+  private final long myLength;
+
+  FileChannelWriteFileContent(@NotNull final File file, final long length) {
+    myFile = file;
+    myLength = length;
+  }
+
+  public void writeTo(final OutputStream out) throws IOException {
+    final FileChannel channel = FileChannel.open(myFile.toPath(), StandardOpenOption.READ);
+    try {
+      // not closed: the stream belongs to the patch builder
+      final WritableByteChannel target = Channels.newChannel(out);
+      long position = 0;
+      while (position < myLength) {
+        final long transferred = channel.transferTo(position, Math.min(CHUNK_SIZE, myLength - position), target);
+        if (transferred <= 0) {
+          throw new EOFException(String.format("\"%s\" was truncated while building the patch: %d of %d byte(s) read", myFile, position, myLength));
+        }
+        position += transferred;
+      }
+    } finally {
+      channel.close();
+    }
+  }
+}
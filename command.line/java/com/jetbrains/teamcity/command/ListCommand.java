@@ -51,7 +51,7 @@ public class ListCommand implements ICommand {
     }
   }
 
-  private String printConfigurations(final Server server, Args args) throws ECommunicationException {
+  private String printConfigurations(final Server server, Args args) throws ECommunicationException, EAuthorizationException {
     final String filterByProject;
     if (args != null && args.hasArgument(PROJECT_SWITCH, PROJECT_SWITCH_LONG)) {
       filterByProject = args.getArgument(PROJECT_SWITCH, PROJECT_SWITCH_LONG);
@@ -88,7 +88,7 @@ public class ListCommand implements ICommand {
     return table.toString();
   }
 
-  private String printProjects(final Server server) throws ECommunicationException {
+  private String printProjects(final Server server) throws ECommunicationException, EAuthorizationException {
     // get & sort
     final ArrayList<ProjectData> projects = new ArrayList<ProjectData>(server.getProjects());
     Collections.sort(projects, new Comparator<ProjectData>() {
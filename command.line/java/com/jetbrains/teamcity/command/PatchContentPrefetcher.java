@@ -0,0 +1,189 @@
+package com.jetbrains.teamcity.command;
+
+import com.jetbrains.teamcity.resources.ITCResource;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stats and reads patch resources by a pool of reader threads ahead of the patch writer.
+ * Entries are handed out in the order of the resources, at most a few per reader are queued.
+ * Files larger than {@link #MAX_PREFETCHED_SIZE} are only stat-ed, their content is transferred by the writer straight from the file channel.
+ * The content read ahead takes at most {@link #MAX_PREFETCHED_BYTES}: once it is reached, files are only stat-ed as well
+ * until the writer takes their entries.
+ */
+class PatchContentPrefetcher implements Closeable {
+
+  static final int DEFAULT_READERS = 4;
+  static final int MAX_READERS = 64;
+  static final int MAX_PREFETCHED_SIZE = 1024 * 1024;
+  static final long MAX_PREFETCHED_BYTES = 16 * 1024 * 1024;
+  private static final int ENTRIES_PER_READER = 4;
+
+  private final Iterator<ITCResource> myResources;
+  private final ExecutorService myReaders;
+  private final int myWindow;
+  private final long myMaxPrefetchedBytes;
+  private final ArrayDeque<Future<Entry>> myQueue = new ArrayDeque<Future<Entry>>();
+  private final AtomicLong myPrefetchedBytes = new AtomicLong();
+
+  PatchContentPrefetcher(@NotNull final Collection<ITCResource> resources, final int readers) {
+    this(resources, readers, MAX_PREFETCHED_BYTES);
+  }
+
+  PatchContentPrefetcher(@NotNull final Collection<ITCResource> resources, final int readers, final long maxPrefetchedBytes) {
+    myResources = resources.iterator();
+    myWindow = readers * ENTRIES_PER_READER;
+    myMaxPrefetchedBytes = maxPrefetchedBytes;
+    final AtomicInteger counter = new AtomicInteger();
+    myReaders = Executors.newFixedThreadPool(readers, new ThreadFactory() {
+      public Thread newThread(@NotNull final Runnable r) {
+        final Thread thread = new Thread(r, "Patch reader " + counter.incrementAndGet()); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    fill();
+  }
+
+  boolean hasNext() {
+    return !myQueue.isEmpty();
+  }
+
+  /**
+   * @throws IOException if the file could not be read
+   */
+  @NotNull
+  Entry next() throws IOException {
+    final Future<Entry> head = myQueue.poll();
+    if (head == null) {
+      throw new IllegalStateException("No more entries");
+    }
+    fill();
+    try {
+      final Entry entry = head.get();
+      if (entry.myContent != null) {
+        myPrefetchedBytes.addAndGet(-entry.myContent.length);
+      }
+      return entry;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  public void close() {
+    for (final Future<Entry> pending : myQueue) {
+      pending.cancel(true);
+    }
+    myQueue.clear();
+    myReaders.shutdownNow();
+  }
+
+  private void fill() {
+    while (myQueue.size() < myWindow && myResources.hasNext()) {
+      final ITCResource resource = myResources.next();
+      myQueue.add(myReaders.submit(new Callable<Entry>() {
+        public Entry call() throws IOException {
+          return read(resource);
+        }
+      }));
+    }
+  }
+
+  /**
+   * @return number of bytes read ahead and not taken by the writer yet
+   */
+  long getPrefetchedBytes() {
+    return myPrefetchedBytes.get();
+  }
+
+  private Entry read(final ITCResource resource) throws IOException {
+    final File file = resource.getLocal();
+    if (!file.exists()) {
+      return new Entry(resource, false, 0, null);
+    }
+    final long length = file.length();
+    if (length > MAX_PREFETCHED_SIZE || !reserve(length)) {
+      return new Entry(resource, true, length, null);
+    }
+    final byte[] content;
+    try {
+      content = Files.readAllBytes(file.toPath());
+    } finally {
+      myPrefetchedBytes.addAndGet(-length);
+    }
+    // the file may have changed since it was stat-ed
+    myPrefetchedBytes.addAndGet(content.length);
+    return new Entry(resource, true, content.length, content);
+  }
+
+  /**
+   * never blocks: the writer may be waiting for this very entry while the budget is taken by the entries after it
+   */
+  private boolean reserve(final long length) {
+    long current;
+    do {
+      current = myPrefetchedBytes.get();
+      if (current + length > myMaxPrefetchedBytes) {
+        return false;
+      }
+    } while (!myPrefetchedBytes.compareAndSet(current, current + length));
+    return true;
+  }
+
+  static class Entry {
+    private final ITCResource myResource;
+    private final boolean myExists;
+    private final long myLength;
+    private final byte[] myContent;
+
+    private Entry(final ITCResource resource, final boolean exists, final long length, final byte[] content) {
+      myResource = resource;
+      myExists = exists;
+      myLength = length;
+      myContent = content;
+    }
+
+    @NotNull
+    ITCResource getResource() {
+      return myResource;
+    }
+
+    /**
+     * a file which does not exist is sent as deleted
+     */
+    boolean exists() {
+      return myExists;
+    }
+
+    long getLength() {
+      return myLength;
+    }
+
+    @NotNull
+    LowLevelPatchBuilder.WriteFileContent getContent() {
+      if (myContent == null) {
+        return new FileChannelWriteFileContent(myResource.getLocal(), myLength);
+      }
+      return new LowLevelPatchBuilder.WriteFileContent() {
+        public void writeTo(final OutputStream out) throws IOException {
+          out.write(myContent);
+        }
+      };
+    }
+  }
+}
@@ -9,20 +9,23 @@ import com.jetbrains.teamcity.resources.ITCResourceMatcher;
 import com.jetbrains.teamcity.resources.TCWorkspace;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import javax.naming.directory.InvalidAttributesException;
 import jetbrains.buildServer.*;
 import jetbrains.buildServer.core.runtime.IProgressMonitor;
 import jetbrains.buildServer.core.runtime.IProgressStatus;
 import jetbrains.buildServer.core.runtime.ProgressStatus;
+import jetbrains.buildServer.serverProxy.PersonalChangeStatusData;
+import jetbrains.buildServer.serverProxy.RemoteServerFacadeImpl;
 import jetbrains.buildServer.serverSide.userChanges.PersonalChangeCommitDecision;
 import jetbrains.buildServer.util.Converter;
 import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.util.ThreadUtil;
 import jetbrains.buildServer.util.filters.Filter;
-import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilder;
 import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilderImpl;
-import jetbrains.buildServer.vcs.patches.PatchBuilderImpl;
 import org.jetbrains.annotations.NotNull;
 
 import static java.text.MessageFormat.format;
@@ -30,20 +33,7 @@ import static jetbrains.buildServer.util.CollectionsUtil.filterAndConvertCollect
 
 public class RemoteRun implements ICommand {
 
-  private static final IFileFilter TCC_FILTER = new IFileFilter() {
-
-    public Collection<File> accept(Collection<File> files) {
-      final HashSet<File> result = new HashSet<File>();
-      for (final File file : files) {
-        if (!file.getName().toLowerCase().equals(TCWorkspace.TCC_ADMIN_FILE)) {
-          result.add(file);
-        }
-      }
-      return result;
-    }
-  };
-
-  private static final int SLEEP_INTERVAL = 1000 * 5;
+  private static final int LONG_POLL_TIMEOUT = 1000 * 30;
   private static final int DEFAULT_TIMEOUT = 1000 * 60 * 60;
 
   static final String ID = getMsg("RemoteRun.command.id");
@@ -70,6 +60,15 @@ public class RemoteRun implements ICommand {
   private static final String FORCE_CLEAN_SWITCH = getMsg("RemoteRun.force.clean.param.long");
   private static final String REBUILD_DEPS_SWITCH = getMsg("RemoteRun.rebuild.dependencies");
   static final String BUILD_PARAM_SWITCH = getMsg("RemoteRun.build.param");
+  static final String IGNORE_PARAM = getMsg("RemoteRun.ignore.param");
+  static final String NO_VCS_STATUS_SWITCH = getMsg("RemoteRun.no.vcs.status.param");
+  static final String INCREMENTAL_SWITCH = getMsg("RemoteRun.incremental.param");
+  static final String STREAM_PATCH_SWITCH = getMsg("RemoteRun.stream.patch.param");
+  static final String COMPRESS_PATCH_SWITCH = getMsg("RemoteRun.compress.patch.param");
+  static final String READERS_PARAM = getMsg("RemoteRun.readers.param");
+  static final String MAPPING_THREADS_PARAM = getMsg("RemoteRun.mapping.threads.param");
+
+  private static final int MAPPING_BATCH_SIZE = 256;
 
   private Server myServer;
   private String myComment;
@@ -81,10 +80,15 @@ public class RemoteRun implements ICommand {
 
   private boolean myCleanoff;
 
+  private int myReaderCount = PatchContentPrefetcher.DEFAULT_READERS;
+
+  private int myMappingThreads = Runtime.getRuntime().availableProcessors();
+
   private Map<String, String> myConfigExternal2InternalMap;
 
   private volatile ECommunicationException myRecentSummaryError;
   private int mySummaryFailureCount;
+  private Boolean myChangeStatusCallSupported;
 
   static {
     Args.registerArgument(MESSAGE_PARAM, String.format(".*%s\\s+\\S.*", MESSAGE_PARAM)); 
@@ -121,17 +125,37 @@ public class RemoteRun implements ICommand {
     }
     // do not clean after run
     myCleanoff = args.isCleanOff();
+    // threads reading files for the patch
+    if (args.hasArgument(READERS_PARAM)) {
+      myReaderCount = Integer.parseInt(args.getArgument(READERS_PARAM));
+    }
+    // threads mapping files to the repository paths
+    if (args.hasArgument(MAPPING_THREADS_PARAM)) {
+      myMappingThreads = Integer.parseInt(args.getArgument(MAPPING_THREADS_PARAM));
+    }
 
     final TCWorkspace workspace = new TCWorkspace(getOverridingMatcher(args));
 
     // collect files
-    final Collection<File> files = getFiles(args, monitor);
+    Collection<File> files = getFiles(args, monitor);
+
+    // skip files which have not changed since the last successful run
+    FileManifest manifest = null;
+    if (args.hasArgument(INCREMENTAL_SWITCH)) {
+      manifest = FileManifest.forWorkspace(Util.getWorkingDirectory());
+      files = manifest.getChanged(files, monitor);
+      if (files.isEmpty()) {
+        throw new IllegalArgumentException(getMsg("RemoteRun.no.files.collected.for.remoterun.error.message"));
+      }
+    }
 
     // collect TC files
     final Collection<ITCResource> tcResources = getTCResources(workspace, files, monitor);
+    debug("Canonical path cache: %s", CanonicalPathCache.getInstance());
 
-    // prepare patch
-    final File patchFile = createPatch(tcResources, monitor);
+    // prepare patch unless it is streamed to the server while uploading
+    final boolean streamPatch = args.hasArgument(STREAM_PATCH_SWITCH);
+    final File patchFile = streamPatch ? null : createPatch(tcResources, monitor);
 
     // collect configurations for running
     final Collection<String> requestedInternalIds = getRequestedConfigurations(args);
@@ -141,7 +165,10 @@ public class RemoteRun implements ICommand {
                                                        StringUtil.join(",", requestedInternalIds)));
     }
     // prepare changes list
-    final long chaneListId = myServer.createChangeList(patchFile, myComment, monitor);
+    myServer.setCompressPatch(args.hasArgument(COMPRESS_PATCH_SWITCH));
+    final long chaneListId = streamPatch
+                             ? myServer.createChangeList(createPatchWriter(tcResources, monitor), myComment, monitor)
+                             : myServer.createChangeList(patchFile, myComment, monitor);
 
     Map<String, String> parameterMap = convertToMapAndUnescape(args.getArgValues(BUILD_PARAM_SWITCH));
 
@@ -159,6 +186,9 @@ public class RemoteRun implements ICommand {
 
     } else {
       waitForSuccessResult(chaneListId, myTimeout, monitor);
+      if (manifest != null) {
+        manifest.save();
+      }
       myResultDescription = String.format("Build for Change %d run successfully", chaneListId);
     }
   }
@@ -190,7 +220,7 @@ public class RemoteRun implements ICommand {
   /**
    * @return A string of joined build configuration internal IDs which should be used to start the build
    */
-  private Collection<String> getRequestedConfigurations(final Args args) throws ECommunicationException {
+  private Collection<String> getRequestedConfigurations(final Args args) throws ECommunicationException, EAuthorizationException {
 
     final String projectId = args.getArgument(PROJECT_PARAM, PROJECT_PARAM_LONG);
     if (projectId != null) {
@@ -204,8 +234,21 @@ public class RemoteRun implements ICommand {
   /**
    * @param projectId Could be internal or external ID
    */
-  private List<String> getBuildTypeInternalIds(final String projectId) throws ECommunicationException {
-    final List<String> result = filterAndConvertCollection(myServer.getConfigurations(), new Converter<String, BuildTypeData>() {
+  private List<String> getBuildTypeInternalIds(final String projectId) throws ECommunicationException, EAuthorizationException {
+    final List<String> resolved = StringUtil.isNotEmpty(projectId) ? myServer.resolveProjectConfigurationIds(projectId) : null;
+    final List<String> result = resolved != null ? resolved : findBuildTypeInternalIds(projectId);
+    if (result.size() == 0 && resolved == null && StringUtil.isNotEmpty(projectId) && myServer.reloadCachedProjects()) {
+      // the project may be newer than the locally cached projects
+      return getBuildTypeInternalIds(projectId);
+    }
+    if (result.size() == 0 && StringUtil.isNotEmpty(projectId)) {
+      throw new IllegalArgumentException(String.format("Cannot find any relevant configurations for project with id [%s]", projectId));
+    }
+    return result;
+  }
+
+  private List<String> findBuildTypeInternalIds(final String projectId) throws ECommunicationException, EAuthorizationException {
+    return filterAndConvertCollection(myServer.getConfigurations(), new Converter<String, BuildTypeData>() {
                                                              public String createFrom(@NotNull final BuildTypeData source) {
                                                                return source.getId();
                                                              }
@@ -215,19 +258,20 @@ public class RemoteRun implements ICommand {
                                                              }
                                                            }
     );
-
-    if (result.size() == 0 && StringUtil.isNotEmpty(projectId)) {
-      throw new IllegalArgumentException(String.format("Cannot find any relevant configurations for project with id [%s]", projectId));
-    }
-
-    return result;
   }
 
-  private List<String> convertExternalId2InternalId(final String buildTypeIds) throws ECommunicationException {
+  private List<String> convertExternalId2InternalId(final String buildTypeIds) throws ECommunicationException, EAuthorizationException {
     final Collection<String> ids = parseConfigurations(buildTypeIds);
     final ArrayList<String> result = new ArrayList<String>();
+    // ask the server for the requested IDs only, the whole projects tree is downloaded if it cannot answer
+    final Map<String, String> resolved = ids.isEmpty() ? null : myServer.resolveConfigurationIds(ids);
     for (String id : ids) {
-      final String internalId = getExternal2InternalMap().get(id);
+      String internalId = resolved != null ? resolved.get(id) : getExternal2InternalMap().get(id);
+      if (internalId == null && resolved == null && !id.matches("bt\\d+") && myServer.reloadCachedProjects()) {
+        // the configuration may be newer than the locally cached projects
+        myConfigExternal2InternalMap = null;
+        internalId = getExternal2InternalMap().get(id);
+      }
       if (internalId != null) {
         result.add(internalId);
       }
@@ -243,7 +287,7 @@ public class RemoteRun implements ICommand {
     return result;
   }
 
-  private Map<String, String> getExternal2InternalMap() throws ECommunicationException {
+  private Map<String, String> getExternal2InternalMap() throws ECommunicationException, EAuthorizationException {
     if (myConfigExternal2InternalMap == null) {
       myConfigExternal2InternalMap = new HashMap<String, String>();
       for (BuildTypeData configuration : myServer.getConfigurations()) {
@@ -255,15 +299,26 @@ public class RemoteRun implements ICommand {
 
 
   Collection<ITCResource> getTCResources(final TCWorkspace workspace, final Collection<File> files, final IProgressMonitor monitor) throws IllegalArgumentException {
+    return getTCResources(workspace, files, myMappingThreads, monitor);
+  }
+
+  /**
+   * @param threads number of threads mapping the files, 1 maps them in the calling thread
+   */
+  Collection<ITCResource> getTCResources(final TCWorkspace workspace, final Collection<File> files, final int threads, final IProgressMonitor monitor) throws IllegalArgumentException {
     monitor.beginTask(getMsg("RemoteRun.mapping.step.name"));
     final HashSet<ITCResource> out = new HashSet<ITCResource>(files.size());
-    for (final File file : files) {
-      final ITCResource resource = workspace.getTCResource(file);
-      if (resource != null && resource.getRepositoryPath() != null) {
-        out.add(resource);
-      } else {
-        debug("? \"%s\" has not associated ITCResource(%s) or empty RepositoryPath(%s)", file, resource, resource != null ? resource.getRepositoryPath() : null);
+    if (threads > 1 && files.size() > MAPPING_BATCH_SIZE) {
+      final ConcurrentLinkedQueue<ITCResource> mapped = new ConcurrentLinkedQueue<ITCResource>();
+      final ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+        pool.invoke(new MappingTask(workspace, new ArrayList<File>(files), mapped));
+      } finally {
+        pool.shutdown();
       }
+      out.addAll(mapped);
+    } else {
+      map(workspace, files, out);
     }
     // fire exception if nothing found
     if (out.isEmpty()) {
@@ -274,6 +329,44 @@ public class RemoteRun implements ICommand {
     return out;
   }
 
+  private void map(final TCWorkspace workspace, final Collection<File> files, final Collection<ITCResource> out) throws IllegalArgumentException {
+    for (final File file : files) {
+      final ITCResource resource = workspace.getTCResource(file);
+      if (resource != null && resource.getRepositoryPath() != null) {
+        out.add(resource);
+      } else {
+        debug("? \"%s\" has not associated ITCResource(%s) or empty RepositoryPath(%s)", file, resource, resource != null ? resource.getRepositoryPath() : null);
+      }
+    }
+  }
+
+  /**
+   * Splits the files in halves until a batch is small enough to be mapped by one thread
+   */
+  private class MappingTask extends RecursiveAction {
+
+    private final TCWorkspace myWorkspace;
+    private final List<File> myFiles;
+    private final Collection<ITCResource> myOut;
+
+    MappingTask(final TCWorkspace workspace, final List<File> files, final Collection<ITCResource> out) {
+      myWorkspace = workspace;
+      myFiles = files;
+      myOut = out;
+    }
+
+    @Override
+    protected void compute() {
+      if (myFiles.size() <= MAPPING_BATCH_SIZE) {
+        map(myWorkspace, myFiles, myOut);
+      } else {
+        final int middle = myFiles.size() / 2;
+        invokeAll(new MappingTask(myWorkspace, myFiles.subList(0, middle), myOut),
+                  new MappingTask(myWorkspace, myFiles.subList(middle, myFiles.size()), myOut));
+      }
+    }
+  }
+
   File createPatch(Collection<ITCResource> resources, IProgressMonitor monitor) throws ECommunicationException {
     try {
       final File emptyPatchFile = createPatchFile();
@@ -291,7 +384,7 @@ public class RemoteRun implements ICommand {
 
   ITCResourceMatcher getOverridingMatcher(final Args args) {
     if (args.hasArgument(OVERRIDING_MAPPING_FILE_PARAM)) {
-      return new FileBasedMatcher(new File(args.getArgument(OVERRIDING_MAPPING_FILE_PARAM)));
+      return new FileBasedMatcher(Util.resolve(args.getArgument(OVERRIDING_MAPPING_FILE_PARAM)));
 
     }
     return null;
@@ -300,7 +393,7 @@ public class RemoteRun implements ICommand {
   private Collection<String> getApplicableConfigurations(Collection<String> requestedIDs,
                                                          final Collection<ITCResource> files,
                                                          final IProgressMonitor monitor,
-                                                         final boolean forceCompatibilityCheck) throws ECommunicationException {
+                                                         final boolean forceCompatibilityCheck) throws ECommunicationException, EAuthorizationException {
 
     monitor.beginTask("Collecting configurations for running");
 
@@ -335,7 +428,7 @@ public class RemoteRun implements ICommand {
   }
 
   @NotNull
-  private Collection<String> collectApplicableConfigurations(final IProgressMonitor monitor, final Collection<ITCResource> files) throws ECommunicationException {
+  private Collection<String> collectApplicableConfigurations(final IProgressMonitor monitor, final Collection<ITCResource> files) throws ECommunicationException, EAuthorizationException {
 
     final HashSet<String> urls = new HashSet<String>();
     for (ITCResource file : files) {
@@ -362,81 +455,125 @@ public class RemoteRun implements ICommand {
     return Collections.unmodifiableSet(out);
   }
 
-  private void waitForSuccessResult(final long changeListId, final long timeOut, IProgressMonitor monitor) throws ERemoteError {
-    sleep(3000);
+  private void waitForSuccessResult(final long changeListId, final long timeOut, IProgressMonitor monitor) throws ERemoteError, EAuthorizationException {
+    final StatusPollingScheduler scheduler = StatusPollingScheduler.fromSystemProperties();
+    sleep(scheduler.getInitialDelay());
     monitor.beginTask("Waiting for Remote Run to finish");
     final long startTime = System.currentTimeMillis();
     UserChangeStatus prevCurrentStatus = null;
+    // the server holds status requests until the status changes if the command line plugin is installed
+    boolean longPoll = true;
+    boolean longPollWorked = false;
     while ((System.currentTimeMillis() - startTime) < timeOut) {
 
-      final List<UserChangeInfoData> personalChanges = getPersonalChanges();
-      if (personalChanges == null) {
-        if (processFailureAndContinue()) {
-          continue;
-        }
-        else {
-          throw new RuntimeException("Error obtaining remote run status after multiple attempts", myRecentSummaryError);
+      UserChangeStatus currentStatus = null;
+      if (longPoll) {
+        final long left = timeOut - (System.currentTimeMillis() - startTime);
+        currentStatus = myServer.waitForChangeStatus(changeListId, prevCurrentStatus, Math.min(left, LONG_POLL_TIMEOUT));
+        if (currentStatus != null) {
+          longPollWorked = true;
+        } else if (!longPollWorked) {
+          debug("Change status is not reported by the server, polling summary");
+          longPoll = false;
         }
       }
-      mySummaryFailureCount = 0;
-
-      for (final UserChangeInfoData data : personalChanges) {
+      final boolean pushed = currentStatus != null;
 
-        if (data.getPersonalDesc() != null && data.getPersonalDesc().getId() == changeListId) {
-          // check builds status
-          final UserChangeStatus currentStatus = data.getChangeStatus();
-          if (!currentStatus.equals(prevCurrentStatus)) {
-            prevCurrentStatus = currentStatus;
-
-            System.out.print(getBuildStatusDescription(currentStatus));
+      if (!pushed) {
+        try {
+          currentStatus = pollChangeStatus(changeListId);
+        } catch (ECommunicationException e) {
+          Debug.getInstance().error(getClass(), "Unable to get remote run status from server", e);
+          myRecentSummaryError = e;
+          if (processFailureAndContinue(scheduler)) {
+            continue;
           }
-
-          if (UserChangeStatus.FAILED_WITH_RESPONSIBLE == currentStatus || UserChangeStatus.FAILED == currentStatus || UserChangeStatus.CANCELED == currentStatus) {
-            System.out.println();
-            throw new ERemoteError("Remote Run failed: build status=" + getBuildStatusDescription(currentStatus));
+          else {
+            throw new RuntimeException("Error obtaining remote run status after multiple attempts", myRecentSummaryError);
           }
+        }
+        mySummaryFailureCount = 0;
+      }
 
-          if (UserChangeStatus.RUNNING_FAILED == currentStatus) {
-            System.out.println("Remote Run failed: build status=" + getBuildStatusDescription(currentStatus));
-          }
+      if (currentStatus != null) {
+        // check builds status
+        if (!currentStatus.equals(prevCurrentStatus)) {
+          prevCurrentStatus = currentStatus;
 
-          if (UserChangeStatus.CHECKED == currentStatus) {
-            // Successful finish
-            System.out.println();
-            // OK
-            monitor.done();
-            return;
-          }
+          System.out.print(getBuildStatusDescription(currentStatus));
+        }
 
+        if (UserChangeStatus.FAILED_WITH_RESPONSIBLE == currentStatus || UserChangeStatus.FAILED == currentStatus || UserChangeStatus.CANCELED == currentStatus) {
+          System.out.println();
+          throw new ERemoteError("Remote Run failed: build status=" + getBuildStatusDescription(currentStatus));
         }
 
+        if (UserChangeStatus.RUNNING_FAILED == currentStatus) {
+          System.out.println("Remote Run failed: build status=" + getBuildStatusDescription(currentStatus));
+        }
+
+        if (UserChangeStatus.CHECKED == currentStatus) {
+          // Successful finish
+          System.out.println();
+          // OK
+          monitor.done();
+          return;
+        }
       }
       System.out.print(".");
-      ThreadUtil.sleep(SLEEP_INTERVAL);
+      if (!pushed) {
+        ThreadUtil.sleep(scheduler.getNextDelay(currentStatus));
+      }
     }
     // so, timeout exceed
     throw new RuntimeException(String.format("Stopped waiting for Remote Run %s, timeout exceeded: %dms", myTimeout, changeListId));
   }
 
-  private boolean processFailureAndContinue() {
+  private static UserChangeStatus findChangeStatus(final List<UserChangeInfoData> personalChanges, final long changeListId) {
+    for (final UserChangeInfoData data : personalChanges) {
+      if (data.getPersonalDesc() != null && data.getPersonalDesc().getId() == changeListId) {
+        return data.getChangeStatus();
+      }
+    }
+    return null;
+  }
+
+  private boolean processFailureAndContinue(final StatusPollingScheduler scheduler) {
     mySummaryFailureCount ++;
     if (mySummaryFailureCount <= 7) {
-      final int seconds = 2 << mySummaryFailureCount;
-      System.out.println(" Failure accessing server [" + myRecentSummaryError.getMessage() + "]; next attempt in " + seconds + " seconds");
-      ThreadUtil.sleep(1000 * seconds);
+      final long delay = scheduler.getFailureDelay(mySummaryFailureCount);
+      System.out.println(" Failure accessing server [" + myRecentSummaryError.getMessage() + "]; next attempt in " + (delay + 500) / 1000 + " seconds");
+      ThreadUtil.sleep(delay);
       return true;
     }
     return false;
   }
 
-  private List<UserChangeInfoData> getPersonalChanges() {
-    try {
-      return myServer.getSummary().getPersonalChanges();
-    } catch (ECommunicationException e) {
-      Debug.getInstance().error(getClass(), "Unable to get data summary from server", e);
-      myRecentSummaryError = e;
-      return null;
+  /**
+   * Asks the server for the status of the change only. Falls back to the whole user summary if the server has no handler
+   * of that call
+   * @return status of the change or null if the server does not know it yet
+   */
+  private UserChangeStatus pollChangeStatus(final long changeListId) throws ECommunicationException, EAuthorizationException {
+    if (myChangeStatusCallSupported != Boolean.FALSE) {
+      try {
+        final PersonalChangeStatusData data = myServer.getPersonalChangeStatus(changeListId);
+        myChangeStatusCallSupported = Boolean.TRUE;
+        if (data == null) {
+          return null;
+        }
+        debug("Remote Run status=%s, builds=%s", data.getStatus(), data.getBuildIds());
+        return data.getStatus();
+      } catch (ECommunicationException e) {
+        // a transient failure is retried with the same call
+        if (myChangeStatusCallSupported == Boolean.TRUE || !RemoteServerFacadeImpl.isPersonalChangeStatusNotSupported(e)) {
+          throw e;
+        }
+        debug("Change status call is not supported by the server, polling summary");
+        myChangeStatusCallSupported = Boolean.FALSE;
+      }
     }
+    return findChangeStatus(myServer.getSummary().getPersonalChanges(), changeListId);
   }
 
   @NotNull
@@ -444,7 +581,7 @@ public class RemoteRun implements ICommand {
     return Messages.getString(key);
   }
 
-  private void sleep(int millis) {
+  private void sleep(long millis) {
     debug("Falling asleep for [%s] millis...", millis);
     try {
       Thread.sleep(millis);
@@ -495,7 +632,7 @@ public class RemoteRun implements ICommand {
                                  final boolean forceCleanCheckout,
                                  boolean rebuildDependencies,
                                  @NotNull Map<String, String> parameterMap,
-                                 @NotNull IProgressMonitor monitor) throws ECommunicationException, ERemoteError {
+                                 @NotNull IProgressMonitor monitor) throws ECommunicationException, EAuthorizationException, ERemoteError {
     final ArrayList<AddToQueueRequest> batch = new ArrayList<AddToQueueRequest>();
     for (final String internalBtId : internalBtIds) {
       final AddToQueueRequest request = new AddToQueueRequest(internalBtId, changeId);
@@ -541,21 +678,40 @@ public class RemoteRun implements ICommand {
     }
   }
 
+  Server.IPatchWriter createPatchWriter(final Collection<ITCResource> resources, final IProgressMonitor monitor) {
+    return new Server.IPatchWriter() {
+      public void write(@NotNull final OutputStream out) throws IOException {
+        fillPatch(out, resources, monitor);
+      }
+    };
+  }
+
   private File fillPatch(final File patchFile, final Collection<ITCResource> resources, final IProgressMonitor monitor) throws IOException {
+    fillPatch(new FileOutputStream(patchFile), resources, monitor);
+    return patchFile;
+  }
+
+  /**
+   * the stream is closed when the patch is complete
+   */
+  private void fillPatch(final OutputStream out, final Collection<ITCResource> resources, final IProgressMonitor monitor) throws IOException {
     DataOutputStream os = null;
     LowLevelPatchBuilderImpl patcher = null;
     final HashSet<String> modifiedResources = new HashSet<String>();
     final HashSet<String> deletedResources = new HashSet<String>();
+    // files are read ahead by the pool, the patch is written in the order of resources
+    final PatchContentPrefetcher prefetcher = new PatchContentPrefetcher(resources, myReaderCount);
     try {
       monitor.beginTask("Preparing patch");
-      os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(patchFile)));
+      os = new DataOutputStream(new BufferedOutputStream(out));
       patcher = new LowLevelPatchBuilderImpl(os);
-      for (final ITCResource resource : resources) {
+      while (prefetcher.hasNext()) {
+        final PatchContentPrefetcher.Entry entry = prefetcher.next();
+        final ITCResource resource = entry.getResource();
         // threat file which is not exist as deleted
-        if (resource.getLocal().exists()) {
+        if (entry.exists()) {
           debug("+ %s", resource.getRepositoryPath());
-          final LowLevelPatchBuilder.WriteFileContent content = new PatchBuilderImpl.StreamWriteFileContent(new BufferedInputStream(new FileInputStream(resource.getLocal())), resource.getLocal().length());
-          patcher.changeBinary(resource.getRepositoryPath(), (int) resource.getLocal().length(), content, false);
+          patcher.changeBinary(resource.getRepositoryPath(), (int) entry.getLength(), entry.getContent(), false);
           modifiedResources.add(resource.getLocal().getPath());
 
         } else {
@@ -567,6 +723,7 @@ public class RemoteRun implements ICommand {
       }
 
     } finally {// finalize patching
+      prefetcher.close();
       if (patcher != null) {
         patcher.exit(""); 
         patcher.close();
@@ -591,8 +748,6 @@ public class RemoteRun implements ICommand {
       monitor.status(new ProgressStatus(IProgressStatus.INFO, patchingResult.toString())); 
       monitor.done();
     }
-    return patchFile;
-
   }
 
   private static File createPatchFile() throws IOException {
@@ -613,7 +768,7 @@ public class RemoteRun implements ICommand {
           }
           i++; // arg value
         }
-        else if (elements[i].toLowerCase().equals(NO_WAIT_SWITCH) || currentToken.equals(NO_WAIT_SWITCH_LONG) || currentToken.equals(CHECK_FOR_CHANGES_EARLY_SWITCH)) {
+        else if (elements[i].toLowerCase().equals(NO_WAIT_SWITCH) || currentToken.equals(NO_WAIT_SWITCH_LONG) || currentToken.equals(CHECK_FOR_CHANGES_EARLY_SWITCH) || currentToken.equals(NO_VCS_STATUS_SWITCH) || currentToken.equals(INCREMENTAL_SWITCH) || currentToken.equals(STREAM_PATCH_SWITCH) || currentToken.equals(COMPRESS_PATCH_SWITCH)) {
           i++; // single token
         }
         else {
@@ -626,13 +781,14 @@ public class RemoteRun implements ICommand {
       }
     }
 
+    final IFileFilter filter = getFileFilter(args);
     Collection<File> result;
 
     if (elements.length > i) {// file's part existing
       final String[] buffer = new String[elements.length - i];
       System.arraycopy(elements, i, buffer, 0, buffer.length);
       debug("Read from arguments: %s", Arrays.toString(buffer));
-      result = collectFiles(buffer);
+      result = collectFiles(buffer, filter, monitor);
     } else {
       // try read from stdin
       debug("Trying stdin...");
@@ -640,11 +796,18 @@ public class RemoteRun implements ICommand {
       if (input != null && input.trim().length() > 0) {
         final String[] buffer = input.split("[\n\r]");
         debug("Read from stdin: %s", Arrays.toString(buffer));
-        result = collectFiles(buffer);
+        result = collectFiles(buffer, filter, monitor);
 
-      } else { // let's use current directory as root if nothing passed
-        debug("Stdin is empty. Will use current (%s) folder as root", new File("."));
-        result = TCC_FILTER.accept(Util.SVN_FILES_FILTER.accept(Util.CVS_FILES_FILTER.accept(Util.getFiles("."))));
+      } else { // let's ask VCS for changes under current directory if nothing passed
+        result = null;
+        if (!args.hasArgument(NO_VCS_STATUS_SWITCH)) {
+          debug("Stdin is empty. Will use VCS status of current (%s) folder", Util.getWorkingDirectory());
+          result = VcsStatus.getChangedFiles(Util.getWorkingDirectory(), filter, monitor);
+        }
+        if (result == null) { // or use it as root
+          debug("Will use current (%s) folder as root", Util.getWorkingDirectory());
+          result = Util.getFiles(Util.getWorkingDirectory().getPath(), filter, monitor);
+        }
       }
     }
     if (result.size() == 0) {
@@ -674,17 +837,26 @@ public class RemoteRun implements ICommand {
     return out;
   }
 
-  private Collection<File> collectFiles(final String[] elements) {
+  /**
+   * @return filter dropping service files and everything matching {@link #IGNORE_PARAM} globs
+   */
+  IFileFilter getFileFilter(final Args args) {
+    final List<String> ignored = args.getArgValues(IGNORE_PARAM);
+    if (ignored.isEmpty()) {
+      return Util.SERVICE_FILES_FILTER;
+    }
+    debug("Ignoring %s", ignored);
+    return Util.compose(Util.SERVICE_FILES_FILTER, Util.createIgnoreFilter(ignored));
+  }
+
+  private Collection<File> collectFiles(final String[] elements, final IFileFilter filter, final IProgressMonitor monitor) {
     final HashSet<File> out = new HashSet<File>();
     for (final String path : elements) {
-      final Collection<File> files;
       if (!path.startsWith("@")) { 
-        files = Util.getFiles(path);
+        out.addAll(Util.getFiles(path, filter, monitor));
       } else {
-        files = Util.getFiles(new File(path.substring(1)));
+        out.addAll(Util.getFiles(Util.resolve(path.substring(1)), filter, monitor));
       }
-      // filter out system files
-      out.addAll(TCC_FILTER.accept(Util.SVN_FILES_FILTER.accept(Util.CVS_FILES_FILTER.accept(files))));
     }
     return out;
   }
@@ -718,7 +890,7 @@ public class RemoteRun implements ICommand {
       getMsg("RemoteRun.help.usage.pattern"),
         getCommandDescription(), getId(), CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG, CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG,
         PROJECT_PARAM, PROJECT_PARAM_LONG, MESSAGE_PARAM, MESSAGE_PARAM_LONG, TIMEOUT_PARAM, TIMEOUT_PARAM_LONG, OVERRIDING_MAPPING_FILE_PARAM,
-        NO_WAIT_SWITCH, NO_WAIT_SWITCH_LONG, CHECK_FOR_CHANGES_EARLY_SWITCH, FORCE_COMPATIBILITY_CHECK_SWITCH, FORCE_CLEAN_SWITCH, REBUILD_DEPS_SWITCH, BUILD_PARAM_SWITCH
+        NO_WAIT_SWITCH, NO_WAIT_SWITCH_LONG, CHECK_FOR_CHANGES_EARLY_SWITCH, FORCE_COMPATIBILITY_CHECK_SWITCH, FORCE_CLEAN_SWITCH, REBUILD_DEPS_SWITCH, BUILD_PARAM_SWITCH, IGNORE_PARAM, NO_VCS_STATUS_SWITCH, INCREMENTAL_SWITCH, STREAM_PATCH_SWITCH, COMPRESS_PATCH_SWITCH, READERS_PARAM, MAPPING_THREADS_PARAM
     );
   }
 
@@ -734,6 +906,18 @@ public class RemoteRun implements ICommand {
     if (args == null || !args.hasArgument(MESSAGE_PARAM, MESSAGE_PARAM_LONG)) {
       throw new IllegalArgumentException(format(getMsg("RemoteRun.missing.message.para.error.pattern"), MESSAGE_PARAM, MESSAGE_PARAM_LONG));
     }
+    if (args.hasArgument(READERS_PARAM)) {
+      final String readers = args.getArgument(READERS_PARAM);
+      if (readers == null || !readers.matches("[1-9]\\d{0,2}") || Integer.parseInt(readers) > PatchContentPrefetcher.MAX_READERS) {
+        throw new IllegalArgumentException(format(getMsg("RemoteRun.wrong.readers.error.pattern"), READERS_PARAM, readers, PatchContentPrefetcher.MAX_READERS));
+      }
+    }
+    if (args.hasArgument(MAPPING_THREADS_PARAM)) {
+      final String threads = args.getArgument(MAPPING_THREADS_PARAM);
+      if (threads == null || !threads.matches("[1-9]\\d{0,2}")) {
+        throw new IllegalArgumentException(format(getMsg("RemoteRun.wrong.mapping.threads.error.pattern"), MAPPING_THREADS_PARAM, threads));
+      }
+    }
   }
 
 }
\ No newline at end of file
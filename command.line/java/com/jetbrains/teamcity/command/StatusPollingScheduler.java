@@ -0,0 +1,126 @@
+package com.jetbrains.teamcity.command;
+
+import com.jetbrains.teamcity.Constants;
+import com.jetbrains.teamcity.Debug;
+import java.util.Random;
+import jetbrains.buildServer.UserChangeStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Delays between remote run status requests. While the builds are queued the delay grows exponentially, once they
+ * are running the status is polled at a constant faster cadence. Every delay is randomized, so tools started at once
+ * do not poll the server in lockstep.
+ */
+class StatusPollingScheduler {
+
+  static final long DEFAULT_INITIAL_DELAY = 1000 * 3;
+  static final long DEFAULT_QUEUED_INTERVAL = 1000 * 5;
+  static final long DEFAULT_MAX_QUEUED_INTERVAL = 1000 * 60;
+  static final double DEFAULT_QUEUED_BACKOFF = 1.5;
+  static final long DEFAULT_RUNNING_INTERVAL = 1000 * 5;
+  static final double DEFAULT_JITTER = 0.5;
+
+  /**
+   * shorter intervals would poll the server in a tight loop
+   */
+  static final long MIN_INTERVAL = 1000;
+
+  private static final long FAILURE_INTERVAL = 1000 * 2;
+
+  private final long myInitialDelay;
+  private final long myQueuedInterval;
+  private final long myMaxQueuedInterval;
+  private final double myQueuedBackoff;
+  private final long myRunningInterval;
+  private final double myJitter;
+  private final Random myRandom;
+  private long myNextQueuedInterval;
+
+  StatusPollingScheduler(final long initialDelay,
+                         final long queuedInterval,
+                         final long maxQueuedInterval,
+                         final double queuedBackoff,
+                         final long runningInterval,
+                         final double jitter,
+                         @NotNull final Random random) {
+    myInitialDelay = initialDelay;
+    myQueuedInterval = queuedInterval;
+    myMaxQueuedInterval = Math.max(queuedInterval, maxQueuedInterval);
+    myQueuedBackoff = Math.max(1, queuedBackoff);
+    myRunningInterval = runningInterval;
+    myJitter = Math.max(0, Math.min(1, jitter));
+    myRandom = random;
+    myNextQueuedInterval = myQueuedInterval;
+  }
+
+  @NotNull
+  static StatusPollingScheduler fromSystemProperties() {
+    return new StatusPollingScheduler(getMillis(Constants.POLL_INITIAL_DELAY_SYSTEM_PROPERTY, DEFAULT_INITIAL_DELAY, 0),
+                                      getMillis(Constants.POLL_QUEUED_INTERVAL_SYSTEM_PROPERTY, DEFAULT_QUEUED_INTERVAL, MIN_INTERVAL),
+                                      getMillis(Constants.POLL_MAX_QUEUED_INTERVAL_SYSTEM_PROPERTY, DEFAULT_MAX_QUEUED_INTERVAL, MIN_INTERVAL),
+                                      getDouble(Constants.POLL_QUEUED_BACKOFF_SYSTEM_PROPERTY, DEFAULT_QUEUED_BACKOFF),
+                                      getMillis(Constants.POLL_RUNNING_INTERVAL_SYSTEM_PROPERTY, DEFAULT_RUNNING_INTERVAL, MIN_INTERVAL),
+                                      getDouble(Constants.POLL_JITTER_SYSTEM_PROPERTY, DEFAULT_JITTER),
+                                      new Random());
+  }
+
+  long getInitialDelay() {
+    return randomize(myInitialDelay);
+  }
+
+  /**
+   * @param status last status of the change, null if the server does not report it yet
+   */
+  long getNextDelay(@Nullable final UserChangeStatus status) {
+    if (UserChangeStatus.RUNNING_SUCCESSFULY == status || UserChangeStatus.RUNNING_FAILED == status) {
+      myNextQueuedInterval = myQueuedInterval;
+      return randomize(myRunningInterval);
+    }
+    final long interval = myNextQueuedInterval;
+    myNextQueuedInterval = Math.min(myMaxQueuedInterval, (long) (interval * myQueuedBackoff));
+    return randomize(interval);
+  }
+
+  /**
+   * @param failureCount number of failed requests in a row, starting from 1
+   */
+  long getFailureDelay(final int failureCount) {
+    return randomize(FAILURE_INTERVAL << failureCount);
+  }
+
+  private long randomize(final long delay) {
+    return Math.max(0, Math.round(delay * (1 + myJitter * (2 * myRandom.nextDouble() - 1))));
+  }
+
+  /**
+   * @param minValue values below it are ignored
+   */
+  private static long getMillis(final String property, final long defaultValue, final long minValue) {
+    final String value = System.getProperty(property);
+    if (value != null) {
+      try {
+        final long millis = Math.round(Double.parseDouble(value.trim()) * 1000);
+        if (millis >= minValue) {
+          return millis;
+        }
+        Debug.getInstance().debug(StatusPollingScheduler.class, String.format("%s=%s is less than %s seconds, using %s seconds", property, value, minValue / 1000d, defaultValue / 1000d));
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(StatusPollingScheduler.class, "Could not parse " + property, e);
+      }
+    }
+    return defaultValue;
+  }
+
+  private static double getDouble(final String property, final double defaultValue) {
+    final String value = System.getProperty(property);
+    if (value != null) {
+      try {
+        return Double.parseDouble(value.trim());
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(StatusPollingScheduler.class, "Could not parse " + property, e);
+      }
+    }
+    return defaultValue;
+  }
+}
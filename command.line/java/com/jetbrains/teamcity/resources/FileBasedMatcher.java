@@ -1,6 +1,7 @@
 
 package com.jetbrains.teamcity.resources;
 
+import com.jetbrains.teamcity.CanonicalPathCache;
 import com.jetbrains.teamcity.Util;
 import java.io.File;
 import java.io.IOException;
@@ -8,6 +9,7 @@ import java.text.MessageFormat;
 import java.util.*;
 import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.Nullable;
 
 public class FileBasedMatcher implements ITCResourceMatcher {
 
@@ -23,6 +25,7 @@ public class FileBasedMatcher implements ITCResourceMatcher {
 
   private final File myFile;
   private final TreeMap<String, String> myRulesMap = new TreeMap<String, String>(PATH_SORTER);
+  private final PathTrie<String> myRulesTrie = new PathTrie<String>();
 
   public static FileBasedMatcher create(final File rootFolder, final Map<File, String> localToRepo) throws IllegalArgumentException {
     // check arguments
@@ -31,13 +34,13 @@ public class FileBasedMatcher implements ITCResourceMatcher {
     }
     // create content
     try {
-      final File absoluteRoot = rootFolder.getCanonicalFile().getAbsoluteFile();
+      final File absoluteRoot = CanonicalPathCache.getInstance().getCanonicalFile(rootFolder);
       final HashMap<String, String> pathToRepoMap = new HashMap<String, String>();
 
       // transform into plain Strings
       for (final Map.Entry<File, String> entry : localToRepo.entrySet()) {
 
-        final File absoluteEntryFile = entry.getKey().getCanonicalFile();
+        final File absoluteEntryFile = CanonicalPathCache.getInstance().getCanonicalFile(entry.getKey());
         final String repoPrefix = Util.toPortableString(entry.getValue());
 
         if (absoluteRoot.equals(absoluteEntryFile)) {
@@ -65,11 +68,31 @@ public class FileBasedMatcher implements ITCResourceMatcher {
   }
 
   public FileBasedMatcher(final File file) {
+    this(file, file != null ? MappingSnapshot.forMappingFile(file) : null);
+  }
+
+  FileBasedMatcher(final File file, @Nullable final MappingSnapshot snapshot) {
     if (file == null || !file.exists()) {
       throw new IllegalArgumentException(MessageFormat.format("File is null or not extists: \"{0}\"", file));
     }
+    myFile = file.getAbsoluteFile();
+    final Map<String, String> compiled = snapshot != null ? snapshot.load() : null;
+    if (compiled != null) {
+      myRulesMap.putAll(compiled);
+    } else {
+      parse();
+      if (snapshot != null) {
+        snapshot.save(myRulesMap);
+      }
+    }
+    // the longest rule wins
+    for (final Map.Entry<String, String> rule : myRulesMap.entrySet()) {
+      myRulesTrie.put(rule.getKey(), rule.getValue());
+    }
+  }
+
+  private void parse() throws IllegalArgumentException {
     try {
-      myFile = file.getAbsoluteFile();
       // parse content
       final List<String> items = FileUtil.readFile(myFile);
       if (items.isEmpty()) {
@@ -94,7 +117,7 @@ public class FileBasedMatcher implements ITCResourceMatcher {
         if (!ruleContainer.isAbsolute()) {
           ruleContainer = new File(myFile.getParentFile().getAbsoluteFile(), path);
         }
-        myRulesMap.put(Util.toPortableString(ruleContainer.getCanonicalFile().getAbsolutePath()), tcid);
+        myRulesMap.put(Util.toPortableString(CanonicalPathCache.getInstance().getCanonicalFile(ruleContainer).getAbsolutePath()), tcid);
       }
     } catch (IOException e) {
       throw new IllegalArgumentException(e);
@@ -103,18 +126,12 @@ public class FileBasedMatcher implements ITCResourceMatcher {
 
   public Matching getMatching(final File file) throws IllegalArgumentException {
     try {
-      final String filePath = Util.toPortableString(file.getCanonicalFile().getAbsolutePath());
-      for (final String rulePath : myRulesMap.keySet()) {
-        if (filePath.startsWith(rulePath)) {
-
-          String relativePath = FileUtil.getRelativePath(rulePath, filePath, '/');
-          if (".".equals(relativePath)) relativePath = "";
-          if (relativePath == null || relativePath.startsWith("..")) continue;
-          
-          return new MatchingImpl(myRulesMap.get(rulePath), relativePath);
-        }
+      final String filePath = Util.toPortableString(CanonicalPathCache.getInstance().getCanonicalFile(file).getPath());
+      final PathTrie.Match<String> match = myRulesTrie.findLongestPrefix(filePath);
+      if (match == null) {
+        return null;
       }
-      return null;
+      return new MatchingImpl(match.myValue, match.myRelativePath);
 
     } catch (IOException e) {
       throw new IllegalArgumentException(e);
@@ -0,0 +1,158 @@
+package com.jetbrains.teamcity.resources;
+
+import com.jetbrains.teamcity.Debug;
+import com.jetbrains.teamcity.FileManifest;
+import com.jetbrains.teamcity.Storage;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Binary copy of the parsed and canonicalized rules of a mapping file, kept in the {@link Storage} folder.
+ * It is used while the mapping file keeps its modification time and content hash.
+ * Rules are not re-canonicalized, so re-pointing a symlink used by a rule requires touching the mapping file.
+ * Snapshots of mapping files which do not exist anymore and the oldest ones over {@link #MAX_SNAPSHOTS} are deleted
+ * whenever a snapshot is saved.
+ */
+class MappingSnapshot {
+
+  static final String SNAPSHOT_FILE_PREFIX = ".tcmapping-"; //$NON-NLS-1$
+  static final int MAX_SNAPSHOTS = 64;
+  private static final int FORMAT_VERSION = 1;
+
+  private final File mySnapshotFile;
+  private final File myMappingFile;
+  private long myModified;
+  private String myHash;
+
+  MappingSnapshot(@NotNull final File snapshotFile, @NotNull final File mappingFile) {
+    mySnapshotFile = snapshotFile;
+    myMappingFile = mappingFile.getAbsoluteFile();
+  }
+
+  @NotNull
+  static MappingSnapshot forMappingFile(@NotNull final File mappingFile) {
+    final String key = FileManifest.hash(mappingFile.getAbsolutePath().getBytes()).substring(0, 16);
+    return new MappingSnapshot(new File(Storage.getInstance().getStorageFolder(), SNAPSHOT_FILE_PREFIX + key), mappingFile);
+  }
+
+  /**
+   * @return rules of the snapshot or null if there is no one or the mapping file has been changed since it was taken
+   */
+  @Nullable
+  Map<String, String> load() {
+    try {
+      myModified = myMappingFile.lastModified();
+      myHash = FileManifest.hash(myMappingFile);
+      if (!mySnapshotFile.isFile()) {
+        return null;
+      }
+      final DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(mySnapshotFile.toPath())));
+      if (in.readInt() != FORMAT_VERSION
+          || !myMappingFile.getPath().equals(in.readUTF())
+          || in.readLong() != myModified
+          || !myHash.equals(in.readUTF())) {
+        Debug.getInstance().debug(MappingSnapshot.class, String.format("\"%s\" is out of date", mySnapshotFile));
+        return null;
+      }
+      final int size = in.readInt();
+      final LinkedHashMap<String, String> rules = new LinkedHashMap<String, String>(size * 2);
+      for (int i = 0; i < size; i++) {
+        rules.put(in.readUTF(), in.readUTF());
+      }
+      return rules;
+    } catch (IOException e) {
+      Debug.getInstance().debug(MappingSnapshot.class, String.format("Could not read \"%s\": %s", mySnapshotFile, e.getMessage()));
+      return null;
+    }
+  }
+
+  /**
+   * stores the rules parsed from the mapping file state seen by the last {@link #load()}
+   */
+  void save(@NotNull final Map<String, String> rules) {
+    if (myHash == null) {
+      return;
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(myMappingFile.getPath());
+      out.writeLong(myModified);
+      out.writeUTF(myHash);
+      out.writeInt(rules.size());
+      for (final Map.Entry<String, String> rule : rules.entrySet()) {
+        out.writeUTF(rule.getKey());
+        out.writeUTF(rule.getValue());
+      }
+      out.flush();
+      FileUtil.createParentDirs(mySnapshotFile);
+      Files.write(mySnapshotFile.toPath(), bytes.toByteArray());
+    } catch (IOException e) {
+      Debug.getInstance().debug(MappingSnapshot.class, String.format("Could not save \"%s\": %s", mySnapshotFile, e.getMessage()));
+      return;
+    }
+    cleanUp(mySnapshotFile.getAbsoluteFile().getParentFile());
+  }
+
+  /**
+   * deletes snapshots of mapping files which do not exist anymore, then the least recently saved ones over {@link #MAX_SNAPSHOTS}
+   */
+  static void cleanUp(@NotNull final File folder) {
+    final File[] snapshots = folder.listFiles(new FilenameFilter() {
+      public boolean accept(final File dir, final String name) {
+        return name.startsWith(SNAPSHOT_FILE_PREFIX);
+      }
+    });
+    if (snapshots == null) {
+      return;
+    }
+    final ArrayList<File> kept = new ArrayList<File>(snapshots.length);
+    for (final File snapshot : snapshots) {
+      final File mappingFile = readMappingFile(snapshot);
+      if (mappingFile != null && mappingFile.isFile()) {
+        kept.add(snapshot);
+      } else {
+        delete(snapshot);
+      }
+    }
+    if (kept.size() > MAX_SNAPSHOTS) {
+      Collections.sort(kept, new Comparator<File>() {
+        public int compare(final File o1, final File o2) {
+          return Long.compare(o1.lastModified(), o2.lastModified());
+        }
+      });
+      for (final File snapshot : kept.subList(0, kept.size() - MAX_SNAPSHOTS)) {
+        delete(snapshot);
+      }
+    }
+  }
+
+  /**
+   * @return mapping file the snapshot was taken of, null if the snapshot is not readable or has another format
+   */
+  @Nullable
+  private static File readMappingFile(@NotNull final File snapshot) {
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+      try {
+        return in.readInt() == FORMAT_VERSION ? new File(in.readUTF()) : null;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static void delete(@NotNull final File snapshot) {
+    if (snapshot.delete()) {
+      Debug.getInstance().debug(MappingSnapshot.class, String.format("\"%s\" deleted", snapshot));
+    }
+  }
+
+}
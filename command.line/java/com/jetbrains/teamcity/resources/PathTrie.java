@@ -0,0 +1,85 @@
+package com.jetbrains.teamcity.resources;
+
+import java.util.HashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Maps absolute portable paths ("/" separated) to values. Lookup returns the value of the longest mapped path
+ * containing the given one, its cost depends on the path depth only.
+ */
+class PathTrie<V> {
+
+  private final Node<V> myRoot = new Node<V>();
+
+  void put(@NotNull final String path, @NotNull final V value) {
+    Node<V> node = myRoot;
+    for (final String segment : split(path)) {
+      Node<V> child = node.myChildren.get(segment);
+      if (child == null) {
+        child = new Node<V>();
+        node.myChildren.put(segment, child);
+      }
+      node = child;
+    }
+    node.myValue = value;
+  }
+
+  /**
+   * @return the longest match or null if no mapped path contains the given one
+   */
+  @Nullable
+  Match<V> findLongestPrefix(@NotNull final String path) {
+    final String[] segments = split(path);
+    Node<V> node = myRoot;
+    V value = null;
+    int depth = -1;
+    for (int i = 0; i < segments.length; i++) {
+      node = node.myChildren.get(segments[i]);
+      if (node == null) {
+        break;
+      }
+      if (node.myValue != null) {
+        value = node.myValue;
+        depth = i + 1;
+      }
+    }
+    if (value == null) {
+      return null;
+    }
+    final StringBuilder relativePath = new StringBuilder();
+    for (int i = depth; i < segments.length; i++) {
+      if (relativePath.length() > 0) {
+        relativePath.append('/');
+      }
+      relativePath.append(segments[i]);
+    }
+    return new Match<V>(value, relativePath.toString());
+  }
+
+  /**
+   * "/a/b/" gives ["", "a", "b"] and "/" gives [""], so "/" and "C:/" roots are distinct segments
+   */
+  private static String[] split(final String path) {
+    int end = path.length();
+    while (end > 0 && path.charAt(end - 1) == '/') {
+      end--;
+    }
+    return path.substring(0, end).split("/", -1); //$NON-NLS-1$
+  }
+
+  static class Match<V> {
+    final V myValue;
+    final String myRelativePath;
+
+    Match(final V value, final String relativePath) {
+      myValue = value;
+      myRelativePath = relativePath;
+    }
+  }
+
+  private static class Node<V> {
+    private final HashMap<String, Node<V>> myChildren = new HashMap<String, Node<V>>(4);
+    private V myValue;
+  }
+}
@@ -45,6 +45,13 @@ public class TCAccess {
     return ourInstance;
   }
 
+  /**
+   * forgets the credentials read from the {@link Storage}, the next {@link #getInstance()} reads them again
+   */
+  public static synchronized void reload() {
+    ourInstance = null;
+  }
+
   private TCAccess() {
     // //cleanup
     // Storage.getInstance().remove(SHARES_KEY);
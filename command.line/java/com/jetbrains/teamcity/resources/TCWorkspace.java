@@ -1,21 +1,31 @@
 
 package com.jetbrains.teamcity.resources;
 
+import com.jetbrains.teamcity.CanonicalPathCache;
 import com.jetbrains.teamcity.Debug;
 import com.jetbrains.teamcity.Storage;
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.jetbrains.annotations.NotNull;
 
 public class TCWorkspace {
 
   public static final String TCC_ADMIN_FILE = ".teamcity-mappings.properties";
 
+  public static final String TC_DEFAULT_CONFIG_ENVIRONMENT_VARIABLE = "TC_DEFAULT_CONFIG"; //$NON-NLS-1$
+
   static final String TCC_GLOBAL_ADMIN_FILE = new File(System.getProperty("user.home"), Storage.TC_CLI_HOME + File.separator + TCC_ADMIN_FILE).getAbsolutePath();
 
-  private final HashMap<File, ITCResourceMatcher> myCache = new HashMap<File, ITCResourceMatcher>();
+  /**
+   * shared by the workspaces of a process, so the commands run by the resident daemon find the admin files resolved
+   */
+  private static final FolderMatchers ourFolderMatchers = new FolderMatchers();
+
+  private final FolderMatchers myFolderMatchers = ourFolderMatchers;
 
   @SuppressWarnings("FieldMayBeFinal") private ITCResourceMatcher myGlobalMatcher;
 
@@ -34,11 +44,14 @@ public class TCWorkspace {
       Debug.getInstance().debug(TCWorkspace.class, MessageFormat.format("Default Admin file \"{0}\" is not found", defaultConfig));
     }
     myOverridingMatcher = externMatcher;
+    if (externMatcher == null) {
+      myFolderMatchers.revalidate();
+    }
     Debug.getInstance().debug(TCWorkspace.class, String.format("Overriding Matcher set to \"%s\"", externMatcher)); //$NON-NLS-1$
   }
 
   protected File getGlobalAdminFile() {
-    final String globalConfigEnv = System.getenv("TC_DEFAULT_CONFIG");
+    final String globalConfigEnv = System.getenv(TC_DEFAULT_CONFIG_ENVIRONMENT_VARIABLE);
     if (globalConfigEnv != null && globalConfigEnv.length() > 0) {
       Debug.getInstance().debug(TCWorkspace.class, String.format("Check Environment variable \"%s\" for Admin file ", globalConfigEnv));
       return new File(globalConfigEnv);
@@ -48,29 +61,9 @@ public class TCWorkspace {
     return new File(myDefaultConfigFile);
   }
 
-  static ITCResourceMatcher getMatcherFor(@NotNull final File local) throws IllegalArgumentException {
-    // per-folder search
-    try {
-      File folder = local.getParentFile();
-      if (folder != null) {
-        folder = folder.getCanonicalFile().getAbsoluteFile();
-        final File adminFile = new File(folder, TCC_ADMIN_FILE);
-        if (adminFile.exists()) {
-          Debug.getInstance().debug(TCWorkspace.class, String.format("found mapping for %s in %s", local, adminFile));
-          return new FileBasedMatcher(adminFile);
-        } else {
-          return getMatcherFor(folder);
-        }
-      }
-    } catch (IOException e) {
-      throw new IllegalArgumentException(e);
-    }
-    return null;
-  }
-
   public ITCResource getTCResource(@NotNull File local) throws IllegalArgumentException {
     try {
-      local = local.getAbsoluteFile().getCanonicalFile();
+      local = CanonicalPathCache.getInstance().getCanonicalFile(local);
     } catch (IOException e) {
       throw new IllegalArgumentException(e);
     }
@@ -79,23 +72,18 @@ public class TCWorkspace {
     if (myOverridingMatcher != null) {
       matcher = myOverridingMatcher;
     } else {
-      // look into cache(cache keep file for files resides in same folder only)
-      matcher = myCache.get(local.getParentFile());
+      // the parent of a canonical file is canonical as well
+      final File folder = local.getParentFile();
+      matcher = folder != null ? myFolderMatchers.get(folder) : null;
       if (matcher == null) {
-        // seek for uncached
-        matcher = getMatcherFor(local);
-        if (matcher == null) {
-          // look into Global
-          matcher = myGlobalMatcher;
-          if (myGlobalMatcher == null) {
-            Debug.getInstance().debug(TCWorkspace.class, MessageFormat.format("Neither Local nor Global admin files found for \"{0}\"", local));
-            return null;
-          }
+        // look into Global
+        matcher = myGlobalMatcher;
+        if (myGlobalMatcher == null) {
+          Debug.getInstance().debug(TCWorkspace.class, MessageFormat.format("Neither Local nor Global admin files found for \"{0}\"", local));
+          return null;
         }
       }
     }
-    // cache found
-    myCache.put(local.getParentFile(), matcher);
     final ITCResourceMatcher.Matching matching = matcher.getMatching(local);
     if (matching == null) {
       Debug.getInstance().debug(TCWorkspace.class, MessageFormat.format("No Matching found for \"{0}\"", local));
@@ -107,6 +95,82 @@ public class TCWorkspace {
     return new TCResource(local, MessageFormat.format("{0}/{1}", prefix, relativePath)); //$NON-NLS-1$
   }
 
+  /**
+   * Remembers the matcher resolved for every visited folder, "no admin file up to the root" included.
+   * A folder is checked for the admin file once, each admin file is parsed once.
+   * Safe for concurrent use: threads racing for the same folder may both check it, but agree on the matcher.<br>
+   * The modification time of the admin file of every visited folder, 0 for a missing one, is kept to
+   * {@link #revalidate()} the matchers before they are used by another command.
+   */
+  static class FolderMatchers {
+
+    private static final ITCResourceMatcher NONE = new ITCResourceMatcher() {
+      public Matching getMatching(final File file) {
+        return null;
+      }
+    };
+
+    private final ConcurrentHashMap<File, ITCResourceMatcher> myMatchers = new ConcurrentHashMap<File, ITCResourceMatcher>();
+    private final ConcurrentHashMap<File, Long> myAdminFileStamps = new ConcurrentHashMap<File, Long>();
+
+    /**
+     * forgets all the matchers if an admin file of a visited folder was created, changed or removed since it was checked
+     */
+    synchronized void revalidate() {
+      for (final Map.Entry<File, Long> stamp : myAdminFileStamps.entrySet()) {
+        if (new File(stamp.getKey(), TCC_ADMIN_FILE).lastModified() != stamp.getValue()) {
+          Debug.getInstance().debug(TCWorkspace.class, String.format("Admin file of %s changed, mappings are resolved again", stamp.getKey()));
+          myMatchers.clear();
+          myAdminFileStamps.clear();
+          return;
+        }
+      }
+    }
+
+    /**
+     * @param folder canonical folder
+     * @return matcher of the nearest admin file in the folder or its ancestors, null if there is no one
+     */
+    ITCResourceMatcher get(@NotNull final File folder) throws IllegalArgumentException {
+      final ArrayList<File> unresolved = new ArrayList<File>();
+      ITCResourceMatcher matcher = null;
+      for (File current = folder; current != null; current = current.getParentFile()) {
+        matcher = myMatchers.get(current);
+        if (matcher != null) {
+          break;
+        }
+        final File adminFile = new File(current, TCC_ADMIN_FILE);
+        final long modified = adminFile.lastModified();
+        if (modified != 0) {
+          matcher = parse(folder, current, adminFile, modified);
+          break;
+        }
+        myAdminFileStamps.putIfAbsent(current, 0L);
+        unresolved.add(current);
+      }
+      if (matcher == null) {
+        matcher = NONE;
+      }
+      for (final File resolved : unresolved) {
+        myMatchers.putIfAbsent(resolved, matcher);
+      }
+      return matcher == NONE ? null : matcher;
+    }
+
+    private synchronized ITCResourceMatcher parse(final File folder, final File adminFolder, final File adminFile, final long modified) throws IllegalArgumentException {
+      // another thread may have parsed it while this one was walking up
+      final ITCResourceMatcher parsed = myMatchers.get(adminFolder);
+      if (parsed != null) {
+        return parsed;
+      }
+      Debug.getInstance().debug(TCWorkspace.class, String.format("found mapping for %s in %s", folder, adminFile));
+      final ITCResourceMatcher matcher = new FileBasedMatcher(adminFile);
+      myMatchers.put(adminFolder, matcher);
+      myAdminFileStamps.put(adminFolder, modified);
+      return matcher;
+    }
+  }
+
   static class TCResource implements ITCResource {
 
     private final File myLocal;
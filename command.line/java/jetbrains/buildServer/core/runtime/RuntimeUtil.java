@@ -56,6 +56,36 @@ public class RuntimeUtil {
     }
   }
 
+  /**
+   * executes the command and returns its stdout. stderr is reported to the monitor
+   */
+  public static byte[] execAndRead(final String[] commands, final File dir, final IProgressMonitor monitor) throws IOException {
+    monitor.status(new ProgressStatus(ProgressStatus.OK, String.format("Executing command: \"%s\" in %s", Arrays.toString(commands), dir)));
+    final Process process = Runtime.getRuntime().exec(commands, null, dir);
+    process.getOutputStream().close();
+    final Thread errReader = pipe(process.getErrorStream(), monitor, true);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final InputStream in = process.getInputStream();
+    try {
+      final byte[] buffer = new byte[8 * 1024];
+      int count;
+      while ((count = in.read(buffer)) > 0) {
+        out.write(buffer, 0, count);
+      }
+      final int result = process.waitFor();
+      errReader.join();
+      if (result != 0) {
+        throw new IOException(String.format("command: {\"%s\" in: \"%s\"}, retcode='%d'", Arrays.toString(commands), dir.getAbsolutePath(), result));
+      }
+    } catch (InterruptedException e) {
+      throw new IOException(e.getMessage());
+    } finally {
+      in.close();
+      process.getErrorStream().close();
+    }
+    return out.toByteArray();
+  }
+
   private static Thread pipe(final InputStream inStream, final IProgressMonitor monitor, final boolean error) {
     Thread reader = new Thread(new Runnable() {
       public void run() {
@@ -296,45 +326,53 @@ public class RuntimeUtil {
 
   }
 
-  public static final IProgressMonitor CONSOLE_MONITOR = new IProgressMonitor() {
+  public static final IProgressMonitor CONSOLE_MONITOR = createConsoleMonitor();
 
-    Stack<String> myTasks = new Stack<String>();
-    private boolean isCanceled;
+  /**
+   * @return monitor printing to the current System.out and System.err with a task stack and a cancel flag of its own
+   */
+  public static IProgressMonitor createConsoleMonitor() {
+    return new IProgressMonitor() {
 
-    public void beginTask(String taskName) {
-      myTasks.push(taskName);
-      status(new ProgressStatus(IProgressStatus.OK, "started"));
-    }
+      Stack<String> myTasks = new Stack<String>();
+      private boolean isCanceled;
 
-    public void done() {
-      status(new ProgressStatus(IProgressStatus.OK, "done"));
-      if (!myTasks.isEmpty()) {
-        myTasks.pop();
+      public void beginTask(String taskName) {
+        myTasks.push(taskName);
+        status(new ProgressStatus(IProgressStatus.OK, "started"));
       }
-    }
 
-    public void status(IProgressStatus status) {
-      if (status.isOK()) {
-        System.out.println(String.format("[%s] %s", myTasks.isEmpty() ? " " : myTasks.peek(), status.getMessage()));
+      public void done() {
+        status(new ProgressStatus(IProgressStatus.OK, "done"));
+        if (!myTasks.isEmpty()) {
+          myTasks.pop();
+        }
+      }
+
+      public void status(IProgressStatus status) {
+        if (status.isOK()) {
+          System.out.println(String.format("[%s] %s", myTasks.isEmpty() ? " " : myTasks.peek(), status.getMessage()));
 
-      } else {
-        System.err.println(String.format("[%s] %s", myTasks.isEmpty() ? " " : myTasks.peek(), status.getMessage()));
-        if (status.getException() != null) {
-          status.getException().printStackTrace();
+        } else {
+          System.err.println(String.format("[%s] %s", myTasks.isEmpty() ? " " : myTasks.peek(), status.getMessage()));
+          if (status.getException() != null) {
+            status.getException().printStackTrace();
+          }
         }
+
       }
 
-    }
+      public void cancel() {
+        isCanceled = true;
+      }
 
-    public void cancel() {
-      isCanceled = true;
-    }
+      public boolean isCancelled() {
+        return isCanceled;
+      }
 
-    public boolean isCancelled() {
-      return isCanceled;
-    }
+    };
+  }
 
-  };
   public static final IProgressMonitor NULL_MONITOR = new IProgressMonitor() {
 
     public void beginTask(String taskName) {
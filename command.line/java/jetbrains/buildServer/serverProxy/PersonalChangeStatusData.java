@@ -0,0 +1,32 @@
+package jetbrains.buildServer.serverProxy;
+
+import java.util.Collections;
+import java.util.List;
+import jetbrains.buildServer.UserChangeStatus;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Status of one personal change without the rest of the user summary
+ */
+public class PersonalChangeStatusData {
+  private final UserChangeStatus myStatus;
+  private final List<Long> myBuildIds;
+
+  public PersonalChangeStatusData(@NotNull final UserChangeStatus status, @NotNull final List<Long> buildIds) {
+    myStatus = status;
+    myBuildIds = Collections.unmodifiableList(buildIds);
+  }
+
+  @NotNull
+  public UserChangeStatus getStatus() {
+    return myStatus;
+  }
+
+  /**
+   * @return IDs of started builds of the change
+   */
+  @NotNull
+  public List<Long> getBuildIds() {
+    return myBuildIds;
+  }
+}
@@ -8,6 +8,7 @@ import jetbrains.buildServer.AddToQueueResult;
 import jetbrains.buildServer.ProjectData;
 import jetbrains.buildServer.TeamServerSummaryData;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public interface RemoteServerFacade {
   @NotNull
@@ -16,6 +17,13 @@ public interface RemoteServerFacade {
   @NotNull
   TeamServerSummaryData getSummaryData(final String userId) throws ECommunicationException;
 
+  /**
+   * @param changeId ID of a personal change of the current user
+   * @return status of the change without the rest of the user summary, null if the change is not found
+   */
+  @Nullable
+  PersonalChangeStatusData getPersonalChangeStatus(final long changeId) throws ECommunicationException;
+
   /**
    * @param urls file URLs to find match for
    * @return collection of internal build configuration IDs, which are suitable for these files
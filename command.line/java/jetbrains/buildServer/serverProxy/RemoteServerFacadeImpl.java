@@ -3,6 +3,7 @@ package jetbrains.buildServer.serverProxy;
 
 import com.jetbrains.teamcity.Debug;
 import com.jetbrains.teamcity.ECommunicationException;
+import com.jetbrains.teamcity.Util;
 import com.jetbrains.teamcity.XStreamUtil;
 import com.jetbrains.teamcity.command.CommandRunner;
 import com.jetbrains.teamcity.command.Messages;
@@ -11,8 +12,14 @@ import jetbrains.buildServer.*;
 import jetbrains.buildServer.version.ServerVersionHolder;
 import jetbrains.buildServer.xmlrpc.XmlRpcTarget;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class RemoteServerFacadeImpl extends RemoteBuildServerImpl implements RemoteServerFacade {
+  /**
+   * handler of the command line plugin
+   */
+  private static final String PERSONAL_CHANGE_STATUS_HANDLER = "CommandLinePersonalChangeStatus";
+
   private final SessionXmlRpcTarget mySession;
 
   public RemoteServerFacadeImpl(SessionXmlRpcTarget target) {
@@ -61,6 +68,40 @@ public class RemoteServerFacadeImpl extends RemoteBuildServerImpl implements Rem
     });
   }
 
+  /**
+   * @return true if the call failed because the server has no handler of the personal change status, e.g. the plugin of
+   * the server is older than the tool
+   */
+  public static boolean isPersonalChangeStatusNotSupported(@NotNull final Throwable e) {
+    final String message = Util.getRootCause(e).getMessage();
+    return message != null && message.contains(PERSONAL_CHANGE_STATUS_HANDLER) && message.contains("not found"); //$NON-NLS-1$
+  }
+
+  @Nullable
+  public PersonalChangeStatusData getPersonalChangeStatus(final long changeId) throws ECommunicationException {
+    final Hashtable data = remoteCall(new ServerCommand<Hashtable>() {
+      public Hashtable execute() {
+        return getRemoteHandlerFacade(PERSONAL_CHANGE_STATUS_HANDLER).callXmlRpc("getPersonalChangeStatus", String.valueOf(changeId));
+      }
+
+      public String describe() {
+        return "getPersonalChangeStatus";
+      }
+    });
+    final Object status = data.get("status");
+    if (status == null) {
+      return null;
+    }
+    final ArrayList<Long> buildIds = new ArrayList<Long>();
+    final Object builds = data.get("builds");
+    if (builds instanceof Vector) {
+      for (final Object id : (Vector) builds) {
+        buildIds.add(Long.valueOf(String.valueOf(id)));
+      }
+    }
+    return new PersonalChangeStatusData(UserChangeStatus.valueOf(String.valueOf(status)), buildIds);
+  }
+
   @NotNull
   public Collection<String> getSuitableConfigurations(final Collection<String> urls) throws ECommunicationException {
     final Vector ids = remoteCall(new ServerCommand<Vector>() {
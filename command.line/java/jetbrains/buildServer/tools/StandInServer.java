@@ -0,0 +1,50 @@
+package jetbrains.buildServer.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build-time stand-in for a TeamCity server: runs the command passed as arguments while a local HTTP server rejects
+ * every request as unauthorized. "{url}" in the arguments is replaced with the URL of the server.<br>
+ * Used by the training runs recording the classes for the class data sharing archive of tcc.jar: the tool goes through
+ * connecting and the rejected logon without a real server, the commands past the logon are not recorded.
+ */
+public class StandInServer {
+
+  private static final String URL_PLACEHOLDER = "{url}"; //$NON-NLS-1$
+
+  public static void main(final String[] args) throws Exception {
+    final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", new HttpHandler() { //$NON-NLS-1$
+      public void handle(final HttpExchange exchange) throws IOException {
+        final InputStream body = exchange.getRequestBody();
+        final byte[] buffer = new byte[8 * 1024];
+        while (body.read(buffer) != -1) {
+          // drain the request
+        }
+        exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"TeamCity\""); //$NON-NLS-1$ //$NON-NLS-2$
+        exchange.sendResponseHeaders(401, -1);
+        exchange.close();
+      }
+    });
+    server.start();
+    final String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort(); //$NON-NLS-1$ //$NON-NLS-2$
+    try {
+      final List<String> command = new ArrayList<String>();
+      for (final String arg : args) {
+        command.add(arg.replace(URL_PLACEHOLDER, url));
+      }
+      final int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+      System.out.println(String.format("Training run exited with %d", exitCode)); //$NON-NLS-1$
+    } finally {
+      server.stop(0);
+    }
+  }
+}
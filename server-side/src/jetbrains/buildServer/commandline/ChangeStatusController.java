@@ -0,0 +1,300 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.UserChangeStatus;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SQueuedBuild;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.vcs.SVcsModification;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Long-poll status of one personal change: the request is suspended until the status differs from the one the
+ * command line tool already knows or the timeout elapses. A suspended request holds no request thread. Build queue and
+ * build events schedule one recheck, which computes the status of every awaited change once for all its waiters.
+ * Requests over the waiters limit, or without async support, get the current status at once.
+ */
+public class ChangeStatusController extends BaseController {
+
+  @NonNls static final String CONTROLLER_PATH = "/commandlineChangeStatus.html";
+  @NonNls static final String CHANGE_ID = "changeId";
+  @NonNls static final String KNOWN_STATUS = "knownStatus";
+  @NonNls static final String TIMEOUT = "timeout";
+  @NonNls static final String MAX_WAITERS_PROPERTY = "teamcity.commandline.maxChangeStatusWaiters";
+
+  static final long MAX_TIMEOUT = 60 * 1000;
+  static final int DEFAULT_MAX_WAITERS = 1000;
+  /**
+   * the status is recomputed at least this often: a running build may start failing without any event listened here
+   */
+  static final long RECHECK_INTERVAL = 10 * 1000;
+  /**
+   * events coming within this delay are handled by one recheck
+   */
+  static final long EVENTS_DELAY = 500;
+
+  private final WebControllerManager myWebControllerManager;
+  private final EventDispatcher<BuildServerListener> myEventDispatcher;
+  private final PersonalChangeStatusProvider myStatusProvider;
+  private final List<Waiter> myWaiters = new ArrayList<Waiter>();
+  private final AtomicBoolean myRecheckScheduled = new AtomicBoolean();
+  private final Runnable myRecheck = new Runnable() {
+    public void run() {
+      try {
+        recheck();
+      } catch (RuntimeException e) {
+        // a failed run would cancel the periodic recheck
+        Loggers.SERVER.warn(e);
+      }
+    }
+  };
+  private final ScheduledExecutorService myExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    public Thread newThread(@NotNull final Runnable runnable) {
+      final Thread thread = new Thread(runnable, "Command line change status");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  public ChangeStatusController(final WebControllerManager webControllerManager,
+                                final EventDispatcher<BuildServerListener> eventDispatcher,
+                                final PersonalChangeStatusProvider statusProvider) {
+    myWebControllerManager = webControllerManager;
+    myEventDispatcher = eventDispatcher;
+    myStatusProvider = statusProvider;
+  }
+
+  public void register() {
+    myWebControllerManager.registerController(CONTROLLER_PATH, this);
+    myEventDispatcher.addListener(new BuildServerAdapter() {
+      @Override
+      public void buildTypeAddedToQueue(@NotNull final SQueuedBuild queuedBuild) {
+        buildsChanged();
+      }
+
+      @Override
+      public void buildRemovedFromQueue(@NotNull final SQueuedBuild queued, final User user, final String comment) {
+        buildsChanged();
+      }
+
+      @Override
+      public void buildStarted(@NotNull final SRunningBuild build) {
+        buildsChanged();
+      }
+
+      @Override
+      public void buildFinished(@NotNull final SRunningBuild build) {
+        buildsChanged();
+      }
+
+      @Override
+      public void buildInterrupted(@NotNull final SRunningBuild build) {
+        buildsChanged();
+      }
+
+      @Override
+      public void serverShutdown() {
+        myExecutor.shutdownNow();
+      }
+    });
+    myExecutor.scheduleWithFixedDelay(myRecheck, RECHECK_INTERVAL, RECHECK_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    final Long changeId = parseLong(request.getParameter(CHANGE_ID));
+    if (changeId == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Wrong or missing " + CHANGE_ID);
+      return null;
+    }
+    final SVcsModification change = myStatusProvider.findPersonalChange(changeId);
+    if (change == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "Personal change " + changeId + " not found");
+      return null;
+    }
+    final UserChangeStatus status = myStatusProvider.getStatus(change);
+    final Long timeout = parseLong(request.getParameter(TIMEOUT));
+    final long wait = timeout != null ? Math.max(0, Math.min(timeout, MAX_TIMEOUT)) : MAX_TIMEOUT;
+    if (!status.name().equals(request.getParameter(KNOWN_STATUS)) || wait == 0 || !request.isAsyncSupported()) {
+      writeStatus(response, status);
+      return null;
+    }
+    final AsyncContext context = request.startAsync();
+    final Waiter waiter = new Waiter(change, status) {
+      @Override
+      protected void reply(@NotNull final UserChangeStatus status) throws IOException {
+        try {
+          writeStatus((HttpServletResponse) context.getResponse(), status);
+        } finally {
+          context.complete();
+        }
+      }
+    };
+    context.setTimeout(wait);
+    context.addListener(new AsyncListener() {
+      public void onTimeout(final AsyncEvent event) throws IOException {
+        timedOut(waiter);
+      }
+
+      public void onError(final AsyncEvent event) {
+        removeWaiter(waiter);
+      }
+
+      public void onComplete(final AsyncEvent event) {
+        removeWaiter(waiter);
+      }
+
+      public void onStartAsync(final AsyncEvent event) {
+      }
+    });
+    if (!addWaiter(waiter)) {
+      waiter.finish(status);
+    }
+    return null;
+  }
+
+  /**
+   * @return false if the limit of waiters is reached
+   */
+  boolean addWaiter(@NotNull final Waiter waiter) {
+    synchronized (myWaiters) {
+      if (myWaiters.size() >= TeamCityProperties.getInteger(MAX_WAITERS_PROPERTY, DEFAULT_MAX_WAITERS)) {
+        return false;
+      }
+      myWaiters.add(waiter);
+      return true;
+    }
+  }
+
+  void removeWaiter(@NotNull final Waiter waiter) {
+    synchronized (myWaiters) {
+      myWaiters.remove(waiter);
+    }
+  }
+
+  int getWaitersCount() {
+    synchronized (myWaiters) {
+      return myWaiters.size();
+    }
+  }
+
+  /**
+   * Replies with the current status, which may have changed since the last recheck
+   */
+  void timedOut(@NotNull final Waiter waiter) throws IOException {
+    removeWaiter(waiter);
+    waiter.finish(myStatusProvider.getStatus(waiter.getChange()));
+  }
+
+  void buildsChanged() {
+    if (myRecheckScheduled.compareAndSet(false, true)) {
+      myExecutor.schedule(new Runnable() {
+        public void run() {
+          myRecheckScheduled.set(false);
+          myRecheck.run();
+        }
+      }, EVENTS_DELAY, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Replies to the waiters whose change got a status other than the known one
+   */
+  void recheck() {
+    final List<Waiter> waiters;
+    synchronized (myWaiters) {
+      waiters = new ArrayList<Waiter>(myWaiters);
+    }
+    final Map<SVcsModification, UserChangeStatus> statuses = new HashMap<SVcsModification, UserChangeStatus>();
+    for (Waiter waiter : waiters) {
+      UserChangeStatus status = statuses.get(waiter.getChange());
+      if (status == null) {
+        status = myStatusProvider.getStatus(waiter.getChange());
+        statuses.put(waiter.getChange(), status);
+      }
+      if (status != waiter.getKnownStatus()) {
+        removeWaiter(waiter);
+        try {
+          waiter.finish(status);
+        } catch (IOException e) {
+          Loggers.SERVER.debug("Cannot send status of a personal change", e);
+        }
+      }
+    }
+  }
+
+  private static void writeStatus(@NotNull final HttpServletResponse response, @NotNull final UserChangeStatus status) throws IOException {
+    response.setContentType("text/plain");
+    response.setHeader("Cache-Control", "no-cache");
+    response.getWriter().print(status.name());
+  }
+
+  @Nullable
+  private static Long parseLong(@Nullable final String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Suspended request for the status of a change, replied to once
+   */
+  abstract static class Waiter {
+
+    private final SVcsModification myChange;
+    private final UserChangeStatus myKnownStatus;
+    private final AtomicBoolean myFinished = new AtomicBoolean();
+
+    Waiter(@NotNull final SVcsModification change, @NotNull final UserChangeStatus knownStatus) {
+      myChange = change;
+      myKnownStatus = knownStatus;
+    }
+
+    @NotNull
+    SVcsModification getChange() {
+      return myChange;
+    }
+
+    @NotNull
+    UserChangeStatus getKnownStatus() {
+      return myKnownStatus;
+    }
+
+    void finish(@NotNull final UserChangeStatus status) throws IOException {
+      if (myFinished.compareAndSet(false, true)) {
+        reply(status);
+      }
+    }
+
+    protected abstract void reply(@NotNull UserChangeStatus status) throws IOException;
+  }
+}
@@ -0,0 +1,210 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Accepts personal patches sent by the command line tool with gzip or deflate Content-Encoding.
+ * The body is decompressed on the fly and the request is forwarded to the standard patch upload controller.
+ * A GET request is answered with "OK", the tool probes the controller that way before sending the patch to it.<br>
+ * The decompressed body is limited by the {@link #MAX_SIZE_PROPERTY} internal property, so a small upload can not fill
+ * the disk of the server.
+ */
+public class CompressedPatchUploadController extends BaseController {
+
+  @NonNls static final String CONTROLLER_PATH = "/commandlineUploadChanges.html";
+  @NonNls private static final String UPLOAD_PATH = "/uploadChanges.html";
+  @NonNls private static final String CONTENT_ENCODING = "Content-Encoding";
+  @NonNls private static final String CONTENT_LENGTH = "Content-Length";
+  @NonNls static final String PROBE_RESPONSE = "OK";
+  @NonNls static final String MAX_SIZE_PROPERTY = "teamcity.commandline.maxDecompressedPatchSize";
+  private static final long DEFAULT_MAX_SIZE = 8L * 1024 * 1024 * 1024;// 8 GB
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final WebControllerManager myWebControllerManager;
+
+  public CompressedPatchUploadController(final WebControllerManager webControllerManager) {
+    myWebControllerManager = webControllerManager;
+  }
+
+  public void register() {
+    myWebControllerManager.registerController(CONTROLLER_PATH, this);
+  }
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    if ("GET".equals(request.getMethod())) {
+      response.setContentType("text/plain");
+      response.setHeader("Cache-Control", "no-cache");
+      response.getWriter().print(PROBE_RESPONSE);
+      return null;
+    }
+    final long maxSize = TeamCityProperties.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+    final HttpServletRequest decompressed = decompress(request, maxSize);
+    if (decompressed == null) {
+      response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported " + CONTENT_ENCODING + ": " + request.getHeader(CONTENT_ENCODING));
+      return null;
+    }
+    try {
+      request.getRequestDispatcher(UPLOAD_PATH).forward(decompressed, response);
+    } catch (Exception e) {
+      if (!isTooLarge(e) || response.isCommitted()) {
+        throw e;
+      }
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Decompressed patch exceeds " + maxSize + " bytes, see the " + MAX_SIZE_PROPERTY + " internal property");
+    }
+    return null;
+  }
+
+  private static boolean isTooLarge(@NotNull final Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof TooLargeException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param maxSize reading more decompressed bytes fails with {@link TooLargeException}
+   * @return request with decompressed body and without Content-Encoding header or null if the encoding is not supported
+   */
+  @Nullable
+  static HttpServletRequest decompress(@NotNull final HttpServletRequest request, final long maxSize) throws IOException {
+    final String encoding = request.getHeader(CONTENT_ENCODING);
+    if (encoding == null || "identity".equalsIgnoreCase(encoding)) {
+      return request;
+    }
+    final InputStream body;
+    if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+      body = new GZIPInputStream(request.getInputStream(), BUFFER_SIZE);
+    } else if ("deflate".equalsIgnoreCase(encoding)) {
+      body = new InflaterInputStream(request.getInputStream());
+    } else {
+      return null;
+    }
+    return new DecompressedRequest(request, body, maxSize);
+  }
+
+  static class TooLargeException extends IOException {
+    TooLargeException(final String message) {
+      super(message);
+    }
+  }
+
+  private static class DecompressedRequest extends HttpServletRequestWrapper {
+
+    private final ServletInputStream myInputStream;
+
+    DecompressedRequest(final HttpServletRequest request, final InputStream body, final long maxSize) {
+      super(request);
+      myInputStream = new ServletInputStream() {
+        private boolean myFinished;
+        private long myRead;
+
+        @Override
+        public int read() throws IOException {
+          final int read = body.read();
+          myFinished = read == -1;
+          count(myFinished ? 0 : 1);
+          return read;
+        }
+
+        @Override
+        public int read(@NotNull final byte[] b, final int off, final int len) throws IOException {
+          final int read = body.read(b, off, len);
+          myFinished = read == -1;
+          count(Math.max(0, read));
+          return read;
+        }
+
+        private void count(final int read) throws TooLargeException {
+          myRead += read;
+          if (myRead > maxSize) {
+            throw new TooLargeException("Decompressed patch exceeds " + maxSize + " bytes");
+          }
+        }
+
+        @Override
+        public boolean isFinished() {
+          return myFinished;
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        /**
+         * the decompressed body is always ready: reads of the listener block on the compressed body of the request
+         */
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+          try {
+            readListener.onDataAvailable();
+            if (myFinished) {
+              readListener.onAllDataRead();
+            }
+          } catch (Throwable e) {
+            readListener.onError(e);
+          }
+        }
+
+        @Override
+        public void close() throws IOException {
+          body.close();
+        }
+      };
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      return myInputStream;
+    }
+
+    @Override
+    public int getContentLength() {
+      return -1;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+      return -1;
+    }
+
+    @Override
+    public String getHeader(final String name) {
+      return isHiddenHeader(name) ? null : super.getHeader(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(final String name) {
+      return isHiddenHeader(name) ? Collections.<String>emptyEnumeration() : super.getHeaders(name);
+    }
+
+    @Override
+    public int getIntHeader(final String name) {
+      return isHiddenHeader(name) ? -1 : super.getIntHeader(name);
+    }
+
+    private static boolean isHiddenHeader(final String name) {
+      return CONTENT_ENCODING.equalsIgnoreCase(name) || CONTENT_LENGTH.equalsIgnoreCase(name);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package jetbrains.buildServer.commandline;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import jetbrains.buildServer.XmlRpcHandlerManager;
+import jetbrains.buildServer.vcs.ChangeStatus;
+import jetbrains.buildServer.vcs.SVcsModification;
+import org.jetbrains.annotations.NonNls;
+
+/**
+ * XML-RPC handler the command line tool polls while waiting for a remote run, instead of downloading the whole user summary.
+ */
+public class PersonalChangeStatusHandler {
+
+  @NonNls static final String HANDLER = "CommandLinePersonalChangeStatus";
+  @NonNls static final String STATUS = "status";
+  @NonNls static final String BUILDS = "builds";
+
+  private final XmlRpcHandlerManager myXmlRpcHandlerManager;
+  private final PersonalChangeStatusProvider myStatusProvider;
+
+  public PersonalChangeStatusHandler(final XmlRpcHandlerManager xmlRpcHandlerManager,
+                                     final PersonalChangeStatusProvider statusProvider) {
+    myXmlRpcHandlerManager = xmlRpcHandlerManager;
+    myStatusProvider = statusProvider;
+  }
+
+  public void register() {
+    myXmlRpcHandlerManager.addSessionHandler(HANDLER, this);
+  }
+
+  /**
+   * @param changeId ID of a personal change of the current user
+   * @return "status" name and "builds" IDs of the change, empty if the change is not found
+   */
+  public Hashtable<String, Object> getPersonalChangeStatus(final String changeId) {
+    final Hashtable<String, Object> result = new Hashtable<String, Object>();
+    final SVcsModification change;
+    try {
+      change = myStatusProvider.findPersonalChange(Long.parseLong(changeId.trim()));
+    } catch (NumberFormatException e) {
+      return result;
+    }
+    if (change == null) {
+      return result;
+    }
+    final ChangeStatus status = myStatusProvider.getChangeStatus(change);
+    result.put(STATUS, PersonalChangeStatusProvider.getStatus(status).name());
+    // XML-RPC has no 64-bit integers
+    final Vector<String> builds = new Vector<String>();
+    for (Long id : PersonalChangeStatusProvider.getBuildIds(status)) {
+      builds.add(String.valueOf(id));
+    }
+    result.put(BUILDS, builds);
+    return result;
+  }
+}
@@ -0,0 +1,123 @@
+package jetbrains.buildServer.commandline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import jetbrains.buildServer.UserChangeStatus;
+import jetbrains.buildServer.responsibility.ResponsibilityEntry;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.vcs.ChangeStatus;
+import jetbrains.buildServer.vcs.ChangeStatusProvider;
+import jetbrains.buildServer.vcs.SVcsModification;
+import jetbrains.buildServer.vcs.VcsModificationHistory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Computes the status of a single personal change the way the user summary does, without building the summary.
+ */
+public class PersonalChangeStatusProvider {
+
+  private final VcsModificationHistory myVcsModificationHistory;
+  private final ChangeStatusProvider myChangeStatusProvider;
+  private final SecurityContext mySecurityContext;
+
+  public PersonalChangeStatusProvider(final VcsModificationHistory vcsModificationHistory,
+                                      final ChangeStatusProvider changeStatusProvider,
+                                      final SecurityContext securityContext) {
+    myVcsModificationHistory = vcsModificationHistory;
+    myChangeStatusProvider = changeStatusProvider;
+    mySecurityContext = securityContext;
+  }
+
+  /**
+   * @return personal change of the current user or null if there is no such change
+   */
+  @Nullable
+  public SVcsModification findPersonalChange(final long changeId) {
+    final SVcsModification change = myVcsModificationHistory.findChangeById(changeId);
+    if (change == null || !change.isPersonal()) {
+      return null;
+    }
+    final User user = mySecurityContext.getAuthorityHolder().getAssociatedUser();
+    if (user == null) {
+      return null;
+    }
+    for (SUser committer : change.getCommitters()) {
+      if (committer.getId() == user.getId()) {
+        return change;
+      }
+    }
+    return null;
+  }
+
+  @NotNull
+  public UserChangeStatus getStatus(@NotNull final SVcsModification change) {
+    return getStatus(getChangeStatus(change));
+  }
+
+  @NotNull
+  public ChangeStatus getChangeStatus(@NotNull final SVcsModification change) {
+    return myChangeStatusProvider.getMergedChangeStatus(change);
+  }
+
+  /**
+   * @return IDs of the started builds, queued builds have no ID yet
+   */
+  @NotNull
+  public static List<Long> getBuildIds(@NotNull final ChangeStatus status) {
+    final ArrayList<Long> ids = new ArrayList<Long>();
+    for (SBuild build : status.getFirstBuilds().values()) {
+      if (build != null) {
+        ids.add(build.getBuildId());
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * The counts of failed, successful and canceled builds are the ones the server merged for the change. A failed change
+   * is failed with responsible if someone has taken the responsibility for the configuration of every failed first build.
+   * Canceled builds make the change canceled only if none of its builds succeeded or failed.
+   */
+  @NotNull
+  public static UserChangeStatus getStatus(@NotNull final ChangeStatus status) {
+    final boolean inProgress = status.getQueuedBuildsNumber() + status.getRunningBuildsNumber() > 0;
+    final int failed = status.getFailedCount();
+    if (failed > 0) {
+      if (inProgress) {
+        return UserChangeStatus.RUNNING_FAILED;
+      }
+      return getFailedWithResponsibleCount(status) >= failed ? UserChangeStatus.FAILED_WITH_RESPONSIBLE : UserChangeStatus.FAILED;
+    }
+    if (inProgress) {
+      return status.getRunningBuildsNumber() + status.getSuccessCount() + status.getCancelledCount() > 0
+             ? UserChangeStatus.RUNNING_SUCCESSFULY : UserChangeStatus.PENDING;
+    }
+    if (status.getSuccessCount() > 0) {
+      return UserChangeStatus.CHECKED;
+    }
+    // builds may be not queued yet
+    return status.getCancelledCount() > 0 ? UserChangeStatus.CANCELED : UserChangeStatus.PENDING;
+  }
+
+  private static int getFailedWithResponsibleCount(@NotNull final ChangeStatus status) {
+    int count = 0;
+    for (Map.Entry<SBuildType, SBuild> entry : status.getFirstBuilds().entrySet()) {
+      final SBuild build = entry.getValue();
+      if (build != null && build.getCanceledInfo() == null && build.getBuildStatus().isFailed() && hasResponsible(entry.getKey())) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static boolean hasResponsible(@NotNull final SBuildType buildType) {
+    final ResponsibilityEntry responsibility = buildType.getResponsibilityInfo();
+    return responsibility != null && responsibility.getState() == ResponsibilityEntry.State.TAKEN;
+  }
+}
@@ -0,0 +1,164 @@
+package jetbrains.buildServer.commandline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Reports a stamp changed on every project or build configuration change, so the command line tool
+ * revalidates its local copy of projects without downloading them. The projects a user gets depend on the user's
+ * permissions, so the stamp is followed by a hash of the projects the requesting user can view.
+ */
+public class ProjectsVersionController extends BaseController {
+
+  @NonNls static final String CONTROLLER_PATH = "/commandlineProjectsVersion.html";
+
+  private final WebControllerManager myWebControllerManager;
+  private final EventDispatcher<BuildServerListener> myEventDispatcher;
+  private final ProjectManager myProjectManager;
+  private final SecurityContext mySecurityContext;
+  private final AtomicLong myVersion = new AtomicLong(System.currentTimeMillis());
+
+  public ProjectsVersionController(final WebControllerManager webControllerManager,
+                                   final EventDispatcher<BuildServerListener> eventDispatcher,
+                                   final ProjectManager projectManager,
+                                   final SecurityContext securityContext) {
+    myWebControllerManager = webControllerManager;
+    myEventDispatcher = eventDispatcher;
+    myProjectManager = projectManager;
+    mySecurityContext = securityContext;
+  }
+
+  public void register() {
+    myWebControllerManager.registerController(CONTROLLER_PATH, this);
+    myEventDispatcher.addListener(new BuildServerAdapter() {
+      @Override
+      public void projectCreated(@NotNull final String projectId, final SUser user) {
+        projectsChanged();
+      }
+
+      @Override
+      public void projectRemoved(@NotNull final String projectId) {
+        projectsChanged();
+      }
+
+      @Override
+      public void projectPersisted(@NotNull final String projectId) {
+        projectsChanged();
+      }
+
+      @Override
+      public void projectRestored(@NotNull final String projectId) {
+        projectsChanged();
+      }
+
+      @Override
+      public void buildTypeRegistered(@NotNull final SBuildType buildType) {
+        projectsChanged();
+      }
+
+      @Override
+      public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+        projectsChanged();
+      }
+
+      @Override
+      public void buildTypePersisted(@NotNull final SBuildType buildType) {
+        projectsChanged();
+      }
+
+      @Override
+      public void buildTypeMoved(@NotNull final SBuildType buildType, @NotNull final SProject original) {
+        projectsChanged();
+      }
+
+      @Override
+      public void buildTypeExternalIdChanged(@NotNull final SBuildType buildType, @NotNull final String oldExternalId, @NotNull final String newExternalId) {
+        projectsChanged();
+      }
+
+      @Override
+      public void projectArchived(@NotNull final String projectId) {
+        projectsChanged();
+      }
+
+      @Override
+      public void projectDearchived(@NotNull final String projectId) {
+        projectsChanged();
+      }
+
+      @Override
+      public void projectMoved(@NotNull final SProject project, @NotNull final SProject originalParentProject) {
+        projectsChanged();
+      }
+
+      @Override
+      public void projectExternalIdChanged(@NotNull final SProject project, @NotNull final String oldExternalId, @NotNull final String newExternalId) {
+        projectsChanged();
+      }
+
+      @Override
+      public void projectsLoaded() {
+        // the configuration has been reloaded from disk, e.g. after versioned settings were applied
+        projectsChanged();
+      }
+
+      @Override
+      public void serverConfigurationReloaded() {
+        projectsChanged();
+      }
+    });
+  }
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    response.setContentType("text/plain");
+    response.setHeader("Cache-Control", "no-cache");
+    response.getWriter().print(getVersion() + "-" + getVisibleProjectsHash(mySecurityContext.getAuthorityHolder()));
+    return null;
+  }
+
+  long getVersion() {
+    return myVersion.get();
+  }
+
+  /**
+   * changes when the user is granted or denied viewing of a project, there are no events for every way permissions change
+   */
+  @NotNull
+  String getVisibleProjectsHash(@NotNull final AuthorityHolder user) {
+    int hash = 1;
+    for (final SProject project : myProjectManager.getProjects()) {
+      if (user.isPermissionGrantedForProject(project.getProjectId(), Permission.VIEW_PROJECT)) {
+        hash = 31 * hash + project.getProjectId().hashCode();
+      }
+    }
+    return Integer.toHexString(hash);
+  }
+
+  /**
+   * the stamp grows even for changes within the same millisecond. It starts from the server start time, so a restart does not repeat it
+   */
+  void projectsChanged() {
+    final long now = System.currentTimeMillis();
+    long current;
+    do {
+      current = myVersion.get();
+    } while (!myVersion.compareAndSet(current, Math.max(now, current + 1)));
+  }
+}
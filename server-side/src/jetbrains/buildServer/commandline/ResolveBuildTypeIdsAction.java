@@ -0,0 +1,102 @@
+package jetbrains.buildServer.commandline;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseAjaxActionController;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.util.StringUtil;
+import jetbrains.buildServer.web.openapi.ControllerAction;
+import org.jdom.Content;
+import org.jdom.Element;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resolves build configuration and project IDs passed to the command line tool, external or internal, to internal
+ * build configuration IDs. The tool does not need to download all projects for that.
+ */
+public class ResolveBuildTypeIdsAction implements ControllerAction {
+  @NonNls static final String BUILD_TYPES = "resolveBuildTypeIds";
+  @NonNls static final String PROJECTS = "resolveProjectIds";
+
+  private final ProjectManager myProjectManager;
+  private final SecurityContext mySecurityContext;
+  private final BaseAjaxActionController myController;
+
+  public ResolveBuildTypeIdsAction(final ProjectManager projectManager,
+                                   final SecurityContext securityContext,
+                                   final BaseAjaxActionController controller) {
+    myProjectManager = projectManager;
+    mySecurityContext = securityContext;
+    myController = controller;
+  }
+
+  public boolean canProcess(@NotNull final HttpServletRequest request) {
+    return StringUtil.isNotEmpty(request.getParameter(BUILD_TYPES)) || StringUtil.isNotEmpty(request.getParameter(PROJECTS));
+  }
+
+  public void process(@NotNull final HttpServletRequest request,
+                      @NotNull final HttpServletResponse response,
+                      @Nullable final Element ajaxResponse) {
+    if (ajaxResponse == null) {
+      return;
+    }
+    final Element resolved = new Element("resolved");
+    ajaxResponse.addContent((Content) resolved);
+    for (String id : split(request.getParameter(BUILD_TYPES))) {
+      final SBuildType buildType = findBuildType(id);
+      if (buildType != null && isVisible(buildType.getProjectId())) {
+        resolved.addContent((Content) createBuildTypeElement(buildType).setAttribute("ref", id));
+      }
+    }
+    for (String id : split(request.getParameter(PROJECTS))) {
+      final SProject project = findProject(id);
+      if (project != null && isVisible(project.getProjectId())) {
+        final Element projectElement = new Element("project");
+        projectElement.setAttribute("ref", id);
+        for (SBuildType buildType : project.getOwnBuildTypes()) {
+          projectElement.addContent((Content) createBuildTypeElement(buildType));
+        }
+        resolved.addContent((Content) projectElement);
+      }
+    }
+  }
+
+  @Nullable
+  private SBuildType findBuildType(final String id) {
+    final SBuildType buildType = myProjectManager.findBuildTypeByExternalId(id);
+    return buildType != null ? buildType : myProjectManager.findBuildTypeById(id);
+  }
+
+  @Nullable
+  private SProject findProject(final String id) {
+    final SProject project = myProjectManager.findProjectByExternalId(id);
+    return project != null ? project : myProjectManager.findProjectById(id);
+  }
+
+  private boolean isVisible(final String projectId) {
+    return mySecurityContext.getAuthorityHolder().isPermissionGrantedForProject(projectId, Permission.VIEW_PROJECT);
+  }
+
+  private static Element createBuildTypeElement(final SBuildType buildType) {
+    final Element element = new Element("buildType");
+    element.setAttribute("id", buildType.getBuildTypeId());
+    return element;
+  }
+
+  private static String[] split(@Nullable final String ids) {
+    if (StringUtil.isEmpty(ids)) {
+      return new String[0];
+    }
+    return ids.trim().split("\\s*,\\s*");
+  }
+
+  public void register() {
+    myController.registerAction(this);
+  }
+}
@@ -0,0 +1,111 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.UserChangeStatus;
+import jetbrains.buildServer.vcs.SVcsModification;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class ChangeStatusControllerTest {
+
+  private volatile UserChangeStatus myStatus;
+  private AtomicInteger myStatusRequests;
+  private ChangeStatusController myController;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myStatus = UserChangeStatus.PENDING;
+    myStatusRequests = new AtomicInteger();
+    myController = new ChangeStatusController(null, null, new PersonalChangeStatusProvider(null, null, null) {
+      @NotNull
+      @Override
+      public UserChangeStatus getStatus(@NotNull final SVcsModification change) {
+        myStatusRequests.incrementAndGet();
+        return myStatus;
+      }
+    });
+  }
+
+  public void should_keep_waiters_of_unchanged_status() throws Exception {
+    final TestWaiter waiter = addWaiter();
+    myController.recheck();
+    assertTrue(waiter.getReplies().isEmpty());
+    assertEquals(myController.getWaitersCount(), 1);
+  }
+
+  public void should_compute_status_once_per_recheck() throws Exception {
+    final TestWaiter waiter1 = addWaiter();
+    final TestWaiter waiter2 = addWaiter();
+    myStatus = UserChangeStatus.RUNNING_SUCCESSFULY;
+    myController.recheck();
+    assertEquals(myStatusRequests.get(), 1);
+    assertEquals(waiter1.getReplies().size(), 1);
+    assertEquals(waiter2.getReplies().get(0), UserChangeStatus.RUNNING_SUCCESSFULY);
+    assertEquals(myController.getWaitersCount(), 0);
+  }
+
+  public void should_reply_current_status_on_timeout() throws Exception {
+    final TestWaiter waiter = addWaiter();
+    myStatus = UserChangeStatus.CHECKED;
+    myController.timedOut(waiter);
+    myController.recheck();
+    assertEquals(waiter.getReplies().size(), 1);
+    assertEquals(waiter.getReplies().get(0), UserChangeStatus.CHECKED);
+    assertEquals(myController.getWaitersCount(), 0);
+  }
+
+  public void should_limit_waiters() throws Exception {
+    for (int i = 0; i < ChangeStatusController.DEFAULT_MAX_WAITERS; i++) {
+      addWaiter();
+    }
+    assertFalse(myController.addWaiter(new TestWaiter()));
+  }
+
+  public void should_recheck_once_for_a_burst_of_events() throws Exception {
+    final TestWaiter waiter = addWaiter();
+    myStatus = UserChangeStatus.RUNNING_SUCCESSFULY;
+    for (int i = 0; i < 100; i++) {
+      myController.buildsChanged();
+    }
+    final long deadline = System.currentTimeMillis() + ChangeStatusController.RECHECK_INTERVAL;
+    while (waiter.getReplies().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(waiter.getReplies().size(), 1);
+    assertEquals(myStatusRequests.get(), 1);
+  }
+
+  @NotNull
+  private TestWaiter addWaiter() {
+    final TestWaiter waiter = new TestWaiter();
+    assertTrue(myController.addWaiter(waiter));
+    return waiter;
+  }
+
+  private static class TestWaiter extends ChangeStatusController.Waiter {
+
+    private final List<UserChangeStatus> myReplies = new ArrayList<UserChangeStatus>();
+
+    TestWaiter() {
+      super(null, UserChangeStatus.PENDING);
+    }
+
+    @Override
+    protected synchronized void reply(@NotNull final UserChangeStatus status) throws IOException {
+      myReplies.add(status);
+    }
+
+    synchronized List<UserChangeStatus> getReplies() {
+      return new ArrayList<UserChangeStatus>(myReplies);
+    }
+  }
+}
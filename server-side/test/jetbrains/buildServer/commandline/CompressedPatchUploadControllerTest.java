@@ -0,0 +1,175 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public class CompressedPatchUploadControllerTest {
+
+  private static final byte[] PATCH = "patch content, patch content, patch content".getBytes();
+
+  private Mockery myContext;
+
+  @BeforeMethod
+  protected void setUp() throws Exception {
+    myContext = new Mockery();
+  }
+
+  public void should_decompress_gzip() throws Exception {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final OutputStream out = new GZIPOutputStream(body);
+    out.write(PATCH);
+    out.close();
+
+    final HttpServletRequest request = CompressedPatchUploadController.decompress(mockRequest("gzip", body.toByteArray()), Long.MAX_VALUE);
+
+    assertNotNull(request);
+    assertEquals(readAll(request.getInputStream()), PATCH);
+    assertNull(request.getHeader("Content-Encoding"));
+    assertEquals(request.getContentLength(), -1);
+    assertEquals(request.getContentLengthLong(), -1);
+  }
+
+  public void should_notify_read_listener() throws Exception {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final OutputStream out = new GZIPOutputStream(body);
+    out.write(PATCH);
+    out.close();
+
+    final ServletInputStream in = CompressedPatchUploadController.decompress(mockRequest("gzip", body.toByteArray()), Long.MAX_VALUE).getInputStream();
+    final ByteArrayOutputStream read = new ByteArrayOutputStream();
+    final boolean[] allDataRead = new boolean[1];
+    in.setReadListener(new ReadListener() {
+      public void onDataAvailable() throws IOException {
+        final byte[] buffer = new byte[8];
+        int count;
+        while (in.isReady() && (count = in.read(buffer)) != -1) {
+          read.write(buffer, 0, count);
+        }
+      }
+
+      public void onAllDataRead() {
+        allDataRead[0] = true;
+      }
+
+      public void onError(final Throwable t) {
+        fail(t.getMessage());
+      }
+    });
+
+    assertEquals(read.toByteArray(), PATCH);
+    assertTrue(allDataRead[0]);
+  }
+
+  public void should_answer_probe() throws Exception {
+    final HttpServletRequest request = myContext.mock(HttpServletRequest.class);
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class);
+    final StringWriter written = new StringWriter();
+    myContext.checking(new Expectations() {{
+      allowing(request).getMethod(); will(returnValue("GET"));
+      allowing(response).setContentType("text/plain");
+      allowing(response).setHeader("Cache-Control", "no-cache");
+      allowing(response).getWriter(); will(returnValue(new PrintWriter(written, true)));
+    }});
+
+    new CompressedPatchUploadController(null).doHandle(request, response);
+
+    assertEquals(written.toString(), CompressedPatchUploadController.PROBE_RESPONSE);
+  }
+
+  public void should_decompress_deflate() throws Exception {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final OutputStream out = new DeflaterOutputStream(body);
+    out.write(PATCH);
+    out.close();
+
+    final HttpServletRequest request = CompressedPatchUploadController.decompress(mockRequest("deflate", body.toByteArray()), Long.MAX_VALUE);
+
+    assertNotNull(request);
+    assertEquals(readAll(request.getInputStream()), PATCH);
+  }
+
+  public void should_limit_decompressed_size() throws Exception {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final OutputStream out = new GZIPOutputStream(body);
+    out.write(new byte[1024 * 1024]);
+    out.close();
+
+    final HttpServletRequest request = CompressedPatchUploadController.decompress(mockRequest("gzip", body.toByteArray()), 1024 * 1024 - 1);
+
+    assertNotNull(request);
+    try {
+      readAll(request.getInputStream());
+      fail("decompressed body over the limit is read");
+    } catch (CompressedPatchUploadController.TooLargeException e) {
+      // expected
+    }
+    assertEquals(readAll(CompressedPatchUploadController.decompress(mockRequest("gzip", body.toByteArray()), 1024 * 1024).getInputStream()).length, 1024 * 1024);
+  }
+
+  public void should_pass_uncompressed_request() throws Exception {
+    final HttpServletRequest original = mockRequest(null, PATCH);
+    assertSame(CompressedPatchUploadController.decompress(original, Long.MAX_VALUE), original);
+  }
+
+  public void should_reject_unknown_encoding() throws Exception {
+    assertNull(CompressedPatchUploadController.decompress(mockRequest("br", PATCH), Long.MAX_VALUE));
+  }
+
+  private static byte[] readAll(final InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[1024];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private HttpServletRequest mockRequest(final String encoding, final byte[] body) throws IOException {
+    final HttpServletRequest request = myContext.mock(HttpServletRequest.class);
+    final ByteArrayInputStream in = new ByteArrayInputStream(body);
+    final ServletInputStream servletIn = new ServletInputStream() {
+      @Override
+      public int read() {
+        return in.read();
+      }
+
+      @Override
+      public boolean isFinished() {
+        return in.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(final ReadListener readListener) {
+      }
+    };
+    myContext.checking(new Expectations() {{
+      allowing(request).getHeader("Content-Encoding"); will(returnValue(encoding));
+      allowing(request).getInputStream(); will(returnValue(servletIn));
+    }});
+    return request;
+  }
+}
@@ -0,0 +1,74 @@
+package jetbrains.buildServer.commandline;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.vcs.ChangeStatus;
+import jetbrains.buildServer.vcs.SVcsModification;
+import org.jetbrains.annotations.NotNull;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public class PersonalChangeStatusHandlerTest {
+
+  private Mockery myContext;
+  private SVcsModification myChange;
+  private ChangeStatus myStatus;
+  private PersonalChangeStatusHandler myHandler;
+
+  @BeforeMethod
+  protected void setUp() throws Exception {
+    myContext = new Mockery();
+    myChange = myContext.mock(SVcsModification.class);
+    myStatus = myContext.mock(ChangeStatus.class);
+    myHandler = new PersonalChangeStatusHandler(null, new PersonalChangeStatusProvider(null, null, null) {
+      @Override
+      public SVcsModification findPersonalChange(final long changeId) {
+        return changeId == 42 ? myChange : null;
+      }
+
+      @NotNull
+      @Override
+      public ChangeStatus getChangeStatus(@NotNull final SVcsModification change) {
+        return myStatus;
+      }
+    });
+  }
+
+  public void should_return_status_and_builds() throws Exception {
+    final SBuild started = myContext.mock(SBuild.class, "started");
+    final Map<SBuildType, SBuild> builds = new LinkedHashMap<SBuildType, SBuild>();
+    final SBuildType buildType = myContext.mock(SBuildType.class, "bt1");
+    builds.put(buildType, started);
+    builds.put(myContext.mock(SBuildType.class, "bt2"), null);
+    myContext.checking(new Expectations() {{
+      allowing(myStatus).getQueuedBuildsNumber(); will(returnValue(1));
+      allowing(myStatus).getRunningBuildsNumber(); will(returnValue(0));
+      allowing(myStatus).getFirstBuilds(); will(returnValue(builds));
+      allowing(started).getBuildId(); will(returnValue(100500L));
+      allowing(started).isFinished(); will(returnValue(true));
+      allowing(started).getCanceledInfo(); will(returnValue(null));
+      allowing(started).getBuildStatus(); will(returnValue(Status.FAILURE));
+      allowing(buildType).getResponsibilityInfo(); will(returnValue(null));
+    }});
+
+    final Hashtable<String, Object> result = myHandler.getPersonalChangeStatus("42");
+
+    assertEquals(result.get(PersonalChangeStatusHandler.STATUS), "RUNNING_FAILED");
+    assertEquals(result.get(PersonalChangeStatusHandler.BUILDS), Arrays.asList("100500"));
+  }
+
+  public void should_return_nothing_for_unknown_change() throws Exception {
+    assertTrue(myHandler.getPersonalChangeStatus("1").isEmpty());
+    assertTrue(myHandler.getPersonalChangeStatus("not a number").isEmpty());
+  }
+}
@@ -0,0 +1,144 @@
+package jetbrains.buildServer.commandline;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jetbrains.buildServer.UserChangeStatus;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.responsibility.ResponsibilityEntry;
+import jetbrains.buildServer.serverSide.CanceledInfo;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.vcs.ChangeStatus;
+import org.jetbrains.annotations.Nullable;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class PersonalChangeStatusProviderTest {
+
+  private Mockery myContext;
+  private Map<SBuildType, SBuild> myBuilds;
+  private int myQueued;
+  private int myRunning;
+  private int myFailed;
+  private int mySuccessful;
+  private int myCanceled;
+
+  @BeforeMethod
+  protected void setUp() throws Exception {
+    myContext = new Mockery();
+    myBuilds = new LinkedHashMap<SBuildType, SBuild>();
+    myQueued = 0;
+    myRunning = 0;
+    myFailed = 0;
+    mySuccessful = 0;
+    myCanceled = 0;
+  }
+
+  public void should_be_pending_without_builds() throws Exception {
+    assertStatus(UserChangeStatus.PENDING);
+    myQueued = 1;
+    addBuildType(null);
+    assertStatus(UserChangeStatus.PENDING);
+  }
+
+  public void should_be_running_successfully() throws Exception {
+    myRunning = 1;
+    addBuild(false, Status.NORMAL, ResponsibilityEntry.State.NONE);
+    assertStatus(UserChangeStatus.RUNNING_SUCCESSFULY);
+  }
+
+  public void should_be_running_failed() throws Exception {
+    myQueued = 1;
+    addBuild(true, Status.FAILURE, ResponsibilityEntry.State.NONE);
+    assertStatus(UserChangeStatus.RUNNING_FAILED);
+  }
+
+  public void should_be_checked() throws Exception {
+    addBuild(true, Status.NORMAL, ResponsibilityEntry.State.NONE);
+    assertStatus(UserChangeStatus.CHECKED);
+  }
+
+  public void should_be_failed() throws Exception {
+    addBuild(true, Status.FAILURE, ResponsibilityEntry.State.TAKEN);
+    addBuild(true, Status.FAILURE, ResponsibilityEntry.State.GIVEN_UP);
+    assertStatus(UserChangeStatus.FAILED);
+  }
+
+  public void should_be_failed_with_responsible() throws Exception {
+    addBuild(true, Status.NORMAL, ResponsibilityEntry.State.NONE);
+    addBuild(true, Status.FAILURE, ResponsibilityEntry.State.TAKEN);
+    assertStatus(UserChangeStatus.FAILED_WITH_RESPONSIBLE);
+  }
+
+  public void should_be_canceled() throws Exception {
+    addCanceledBuild();
+    assertStatus(UserChangeStatus.CANCELED);
+  }
+
+  public void should_be_checked_with_canceled_builds() throws Exception {
+    addBuild(true, Status.NORMAL, ResponsibilityEntry.State.NONE);
+    addBuild(true, Status.NORMAL, ResponsibilityEntry.State.NONE);
+    addCanceledBuild();
+    assertStatus(UserChangeStatus.CHECKED);
+  }
+
+  public void should_wait_for_running_builds_of_canceled_change() throws Exception {
+    myRunning = 1;
+    addCanceledBuild();
+    assertStatus(UserChangeStatus.RUNNING_SUCCESSFULY);
+  }
+
+  private void assertStatus(final UserChangeStatus expected) {
+    final ChangeStatus status = myContext.mock(ChangeStatus.class, "status" + expected + myBuilds.size());
+    myContext.checking(new Expectations() {{
+      allowing(status).getQueuedBuildsNumber(); will(returnValue(myQueued));
+      allowing(status).getRunningBuildsNumber(); will(returnValue(myRunning));
+      allowing(status).getFirstBuilds(); will(returnValue(myBuilds));
+      allowing(status).getFailedCount(); will(returnValue(myFailed));
+      allowing(status).getSuccessCount(); will(returnValue(mySuccessful));
+      allowing(status).getCancelledCount(); will(returnValue(myCanceled));
+    }});
+    assertEquals(PersonalChangeStatusProvider.getStatus(status), expected);
+  }
+
+  private void addBuild(final boolean finished, final Status buildStatus, final ResponsibilityEntry.State state) {
+    final SBuild build = myContext.mock(SBuild.class, "build" + myBuilds.size());
+    final ResponsibilityEntry responsibility = myContext.mock(ResponsibilityEntry.class, "responsibility" + myBuilds.size());
+    final SBuildType buildType = addBuildType(build);
+    if (buildStatus.isFailed()) {
+      myFailed++;
+    } else if (finished) {
+      mySuccessful++;
+    }
+    myContext.checking(new Expectations() {{
+      allowing(build).isFinished(); will(returnValue(finished));
+      allowing(build).getCanceledInfo(); will(returnValue(null));
+      allowing(build).getBuildStatus(); will(returnValue(buildStatus));
+      allowing(buildType).getResponsibilityInfo(); will(returnValue(responsibility));
+      allowing(responsibility).getState(); will(returnValue(state));
+    }});
+  }
+
+  private void addCanceledBuild() {
+    final SBuild build = myContext.mock(SBuild.class, "build" + myBuilds.size());
+    final CanceledInfo canceled = myContext.mock(CanceledInfo.class, "canceled" + myBuilds.size());
+    addBuildType(build);
+    myCanceled++;
+    myContext.checking(new Expectations() {{
+      allowing(build).isFinished(); will(returnValue(true));
+      allowing(build).getCanceledInfo(); will(returnValue(canceled));
+      allowing(build).getBuildStatus(); will(returnValue(Status.FAILURE));
+    }});
+  }
+
+  private SBuildType addBuildType(@Nullable final SBuild build) {
+    final SBuildType buildType = myContext.mock(SBuildType.class, "bt" + myBuilds.size());
+    myBuilds.put(buildType, build);
+    return buildType;
+  }
+}
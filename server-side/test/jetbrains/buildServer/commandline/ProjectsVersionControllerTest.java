@@ -0,0 +1,49 @@
+package jetbrains.buildServer.commandline;
+
+import java.util.Arrays;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public class ProjectsVersionControllerTest {
+
+  public void should_change_version_on_every_change() throws Exception {
+    final ProjectsVersionController controller = new ProjectsVersionController(null, null, null, null);
+    long previous = controller.getVersion();
+    for (int i = 0; i < 1000; i++) {
+      controller.projectsChanged();
+      final long current = controller.getVersion();
+      assertTrue(current > previous, current + " > " + previous);
+      previous = current;
+    }
+  }
+
+  public void should_depend_on_projects_visible_to_user() throws Exception {
+    final Mockery context = new Mockery();
+    final ProjectManager projectManager = context.mock(ProjectManager.class);
+    final SProject project1 = context.mock(SProject.class, "project1");
+    final SProject project2 = context.mock(SProject.class, "project2");
+    final AuthorityHolder both = context.mock(AuthorityHolder.class, "both");
+    final AuthorityHolder first = context.mock(AuthorityHolder.class, "first");
+    context.checking(new Expectations() {{
+      allowing(projectManager).getProjects(); will(returnValue(Arrays.asList(project1, project2)));
+      allowing(project1).getProjectId(); will(returnValue("project1"));
+      allowing(project2).getProjectId(); will(returnValue("project2"));
+      allowing(both).isPermissionGrantedForProject("project1", Permission.VIEW_PROJECT); will(returnValue(true));
+      allowing(both).isPermissionGrantedForProject("project2", Permission.VIEW_PROJECT); will(returnValue(true));
+      allowing(first).isPermissionGrantedForProject("project1", Permission.VIEW_PROJECT); will(returnValue(true));
+      allowing(first).isPermissionGrantedForProject("project2", Permission.VIEW_PROJECT); will(returnValue(false));
+    }});
+    final ProjectsVersionController controller = new ProjectsVersionController(null, null, projectManager, null);
+
+    assertEquals(controller.getVisibleProjectsHash(both), controller.getVisibleProjectsHash(both));
+    assertNotEquals(controller.getVisibleProjectsHash(both), controller.getVisibleProjectsHash(first));
+  }
+}
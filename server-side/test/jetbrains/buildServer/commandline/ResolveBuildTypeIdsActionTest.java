@@ -0,0 +1,61 @@
+package jetbrains.buildServer.commandline;
+
+import jetbrains.buildServer.BaseWebTestCase;
+import jetbrains.buildServer.controllers.MockRequest;
+import jetbrains.buildServer.controllers.MockResponse;
+import jetbrains.buildServer.serverSide.auth.RoleScope;
+import jetbrains.buildServer.util.XmlUtil;
+import org.jdom.Element;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+@Test
+public class ResolveBuildTypeIdsActionTest extends BaseWebTestCase {
+  private ResolveBuildTypeIdsAction myAction;
+
+  public void should_process_requests_with_ids_only() throws Exception {
+    assertFalse(myAction.canProcess(new MockRequest()));
+    assertTrue(myAction.canProcess(new MockRequest(ResolveBuildTypeIdsAction.BUILD_TYPES, "bt11")));
+    assertTrue(myAction.canProcess(new MockRequest(ResolveBuildTypeIdsAction.PROJECTS, "project1")));
+  }
+
+  public void should_resolve_visible_ids() throws Exception {
+    makeLoggedIn(createUser("kir"));
+    addRole2LoggedInUser(RoleScope.projectScope(myProject.getProjectId()), getProjectDevRole());
+
+    final Element response = runAction(myBuildType.getExternalId() + ", unknown", myProject.getExternalId());
+
+    assertEquals(XmlUtil.to_s(XmlUtil.from_s(
+      "<response>" +
+      "  <resolved>" +
+      "    <buildType id=\"" + myBuildType.getBuildTypeId() + "\" ref=\"" + myBuildType.getExternalId() + "\" />" +
+      "    <project ref=\"" + myProject.getExternalId() + "\">" +
+      "      <buildType id=\"" + myBuildType.getBuildTypeId() + "\" />" +
+      "    </project>" +
+      "  </resolved>" +
+      "</response>"))
+      , XmlUtil.to_s(response));
+  }
+
+  public void should_not_resolve_invisible_ids() throws Exception {
+    makeLoggedIn(createUser("kir"));
+
+    final Element response = runAction(myBuildType.getBuildTypeId(), myProject.getProjectId());
+
+    assertEquals(XmlUtil.to_s(XmlUtil.from_s("<response><resolved /></response>")), XmlUtil.to_s(response));
+  }
+
+  private Element runAction(final String buildTypeIds, final String projectIds) {
+    final Element response = new Element("response");
+    myAction.process(new MockRequest(ResolveBuildTypeIdsAction.BUILD_TYPES, buildTypeIds, ResolveBuildTypeIdsAction.PROJECTS, projectIds), new MockResponse(), response);
+    return response;
+  }
+
+  @Override
+  @BeforeMethod
+  protected void setUp() throws Exception {
+    super.setUp();
+    myAction = new ResolveBuildTypeIdsAction(myServer.getProjectManager(), myFixture.getSecurityContext(), null);
+  }
+}